@@ -0,0 +1,33 @@
+package com.suriya.tool;
+
+import java.net.URI;
+
+/*
+ * A download that is never queued, so a benchmark can drive its copy loop
+ * and progress counters without the scheduler or a server.
+ */
+class BenchDownload extends SimpleDownload {
+
+	private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+	BenchDownload(String url) {
+		super(URI.create(url));
+		getFileName(uri);
+	}
+
+	@Override
+	protected int getBufferSize() {
+		return bufferSize;
+	}
+
+	void setBufferSize(int bufferSize) {
+		this.bufferSize = bufferSize;
+	}
+
+	// Set the state a run would have before it starts copying.
+	void prepare(long size, long downloaded) {
+		this.size = size;
+		this.downloaded = downloaded;
+		this.status = DOWNLOADING;
+	}
+}
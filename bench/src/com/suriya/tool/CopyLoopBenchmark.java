@@ -0,0 +1,74 @@
+package com.suriya.tool;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Runs SimpleDownload.copyStream, the loop every single-stream transfer
+ * goes through, over an in-memory stream at different buffer sizes. Besides
+ * the write it covers the throttle check, the journal and manifest hooks and
+ * the progress counter, with the write mode from config.properties.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CopyLoopBenchmark {
+
+	// Bytes copied by each invocation.
+	public static final int FILE_SIZE = 32 * 1024 * 1024;
+
+	@Param({ "8192", "65536", "262144", "1048576" })
+	public int bufferSize;
+
+	// A tmpfs mount and a directory on disk.
+	@Param({ "/dev/shm", "target" })
+	public String directory;
+
+	private byte[] data;
+	private File file;
+	private BenchDownload download;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new byte[FILE_SIZE];
+		new Random(1).nextBytes(data);
+
+		File parent = new File(directory);
+		parent.mkdirs();
+		file = File.createTempFile("copy", ".bin", parent);
+		download = new BenchDownload("http://localhost/" + file.getName());
+		download.setBufferSize(bufferSize);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long copy() throws IOException {
+		download.prepare(FILE_SIZE, 0L);
+		download.copyStream(new ByteArrayInputStream(data), file);
+		return download.downloaded;
+	}
+}
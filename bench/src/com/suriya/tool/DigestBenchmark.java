@@ -0,0 +1,92 @@
+package com.suriya.tool;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Compares DigestUtils.md5Hex, as the downloads used to hash whole files,
+ * with a reused MD5 MessageDigest fed a buffer at a time, as the copy loops
+ * do now, and with the other HashService algorithms used for manifests.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DigestBenchmark {
+
+	// A small chunk, a copy buffer and a manifest chunk.
+	@Param({ "4096", "65536", "4194304" })
+	public int length;
+
+	private byte[] data;
+	private MessageDigest md5;
+	private HashService.Hasher sha256;
+	private HashService.Hasher crc32c;
+	private HashService.Hasher xxh64;
+
+	@Setup
+	public void setUp() throws NoSuchAlgorithmException {
+		data = new byte[length];
+		new Random(1).nextBytes(data);
+		md5 = MessageDigest.getInstance(HashService.MD5);
+		sha256 = HashService.newHasher(HashService.SHA256);
+		crc32c = HashService.newHasher(HashService.CRC32C);
+		xxh64 = HashService.newHasher(HashService.XXH64);
+	}
+
+	@Benchmark
+	public String md5HexBytes() {
+		return DigestUtils.md5Hex(data);
+	}
+
+	@Benchmark
+	public String md5HexStream() throws IOException {
+		return DigestUtils.md5Hex(new ByteArrayInputStream(data));
+	}
+
+	// Reused digest, updated in copy-buffer steps.
+	@Benchmark
+	public byte[] md5Reused() {
+		int step = SimpleDownload.DEFAULT_BUFFER_SIZE;
+		for (int offset = 0; offset < length; offset += step)
+			md5.update(data, offset, Math.min(step, length - offset));
+		return md5.digest();
+	}
+
+	@Benchmark
+	public byte[] sha256() {
+		sha256.update(data, 0, length);
+		return sha256.digest();
+	}
+
+	@Benchmark
+	public byte[] crc32c() {
+		crc32c.update(data, 0, length);
+		return crc32c.digest();
+	}
+
+	@Benchmark
+	public byte[] xxh64() {
+		xxh64.update(data, 0, length);
+		return xxh64.digest();
+	}
+}
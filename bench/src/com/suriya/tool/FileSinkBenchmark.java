@@ -0,0 +1,95 @@
+package com.suriya.tool;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Compares the FileSink write modes copying a file's worth of bytes from an
+ * in-memory stream, so only the write path is measured. The tmpfs directory
+ * shows the cost of the copies themselves, the disk directory adds the page
+ * cache and file system.
+ *
+ * Each invocation rewrites the same file, already at its full length, the way
+ * a segmented download writes into an extended file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileSinkBenchmark {
+
+	// Bytes copied by each invocation.
+	public static final int FILE_SIZE = 64 * 1024 * 1024;
+
+	@Param({ FileSink.STREAM, FileSink.CHANNEL, FileSink.TRANSFER, FileSink.MMAP })
+	public String mode;
+
+	// A tmpfs mount and a directory on disk.
+	@Param({ "/dev/shm", "target" })
+	public String directory;
+
+	@Param({ "65536" })
+	public int bufferSize;
+
+	private byte[] data;
+	private File file;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		data = new byte[FILE_SIZE];
+		new Random(1).nextBytes(data);
+
+		File parent = new File(directory);
+		parent.mkdirs();
+		file = File.createTempFile("sink", ".bin", parent);
+		RandomAccessFile target = new RandomAccessFile(file, "rw");
+		try {
+			target.setLength(FILE_SIZE);
+		} finally {
+			target.close();
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	public long copy() throws IOException {
+		ByteArrayInputStream source = new ByteArrayInputStream(data);
+		FileSink sink = FileSink.open(file, mode, bufferSize, true);
+		long position = 0L;
+		try {
+			while (position < FILE_SIZE) {
+				int read = sink.copy(source, position, (int) Math.min(bufferSize, FILE_SIZE - position));
+				if (read == -1)
+					break;
+				position += read;
+			}
+		} finally {
+			sink.close();
+		}
+		return position;
+	}
+}
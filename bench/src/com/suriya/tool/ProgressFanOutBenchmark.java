@@ -0,0 +1,91 @@
+package com.suriya.tool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures one progress sample: every running download reports bytes or a
+ * status change, then the ProgressSampler collects the changed ones and
+ * hands them to each listener. Progress notification used to go through
+ * Observable.notifyObservers on every buffer; this is what replaced it.
+ *
+ * The sampler's own thread also samples every 250 ms, so a few invocations
+ * find nothing left to publish.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProgressFanOutBenchmark {
+
+	@Param({ "1", "4", "16" })
+	public int listenerCount;
+
+	@Param({ "100", "10000" })
+	public int downloadCount;
+
+	private final List<BenchDownload> downloads = new ArrayList<BenchDownload>();
+	private final List<ProgressListener> listeners = new ArrayList<ProgressListener>();
+	private volatile long published = 0L;
+
+	@Setup
+	public void setUp() {
+		for (int i = 0; i < downloadCount; i++) {
+			BenchDownload download = new BenchDownload("http://host" + (i % 16) + "/file" + i + ".bin");
+			download.prepare(Long.MAX_VALUE, 0L);
+			download.stateChanged(); // tracked by the sampler from now on
+			downloads.add(download);
+		}
+		for (int i = 0; i < listenerCount; i++) {
+			ProgressListener listener = new ProgressListener() {
+				public void downloadsChanged(List<SimpleDownload> changed) {
+					published += changed.size();
+				}
+			};
+			listeners.add(listener);
+			ProgressSampler.getInstance().addListener(listener);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		for (ProgressListener listener : listeners)
+			ProgressSampler.getInstance().removeListener(listener);
+		for (BenchDownload download : downloads)
+			download.status = SimpleDownload.PAUSED;
+	}
+
+	// Each transfer thread adds a buffer's worth of bytes.
+	@Benchmark
+	public long progress() {
+		for (BenchDownload download : downloads)
+			download.addDownloaded(SimpleDownload.DEFAULT_BUFFER_SIZE);
+		ProgressSampler.getInstance().run();
+		return published;
+	}
+
+	// Each download flags a status or size change.
+	@Benchmark
+	public long stateChanged() {
+		for (BenchDownload download : downloads)
+			download.stateChanged();
+		ProgressSampler.getInstance().run();
+		return published;
+	}
+}
@@ -0,0 +1,111 @@
+package com.suriya.tool;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.swing.SwingUtilities;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ * Measures the downloads table with thousands of rows: applying one progress
+ * sample to the model on the event thread, and reading the cells of a
+ * screenful of rows as a repaint does. Each sample moves the changed
+ * downloads on, so sorting by speed reorders them. Runs headless, with a
+ * listener standing in for the JTable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class TableModelBenchmark {
+
+	// Rows visible at once, about a screenful.
+	public static final int VISIBLE_ROWS = 40;
+
+	@Param({ "1000", "10000", "100000" })
+	public int rowCount;
+
+	// Downloads in one progress sample.
+	@Param({ "8", "256" })
+	public int changedCount;
+
+	// Order of the view, one of DownloadsTableModel.SORTS.
+	@Param({ "Added", "Speed" })
+	public String sort;
+
+	private DownloadsTableModel model;
+	private List<SimpleDownload> changed;
+	private Random progress;
+	private int firstVisible = 0;
+	private volatile long events = 0L;
+
+	@Setup
+	public void setUp() {
+		model = new DownloadsTableModel();
+		model.setSort(Arrays.asList(DownloadsTableModel.SORTS).indexOf(sort));
+		model.setVisibleRows(0, VISIBLE_ROWS - 1);
+		List<BenchDownload> downloads = new ArrayList<BenchDownload>();
+		for (int i = 0; i < rowCount; i++) {
+			BenchDownload download = new BenchDownload("http://host" + (i % 16) + "/file" + i + ".bin");
+			download.prepare(1024L * 1024 * (i + 1), 1024L * i);
+			downloads.add(download);
+			model.addDownload(download);
+		}
+		model.addTableModelListener(new TableModelListener() {
+			public void tableChanged(TableModelEvent e) {
+				events++;
+			}
+		});
+
+		// Running downloads are spread over the table.
+		Random random = new Random(1);
+		changed = new ArrayList<SimpleDownload>();
+		for (int i = 0; i < changedCount; i++)
+			changed.add(downloads.get(random.nextInt(rowCount)));
+		progress = new Random(2);
+	}
+
+	// Hand one sample to the model and wait for the event thread to apply it.
+	@Benchmark
+	public long update() throws InterruptedException, InvocationTargetException {
+		for (SimpleDownload download : changed)
+			download.addDownloaded(1 + progress.nextInt(64 * 1024));
+		model.downloadsChanged(changed);
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {
+			}
+		});
+		return events;
+	}
+
+	// Read every cell of the visible rows, scrolling a little each time.
+	@Benchmark
+	public int repaint() {
+		int hash = 0;
+		firstVisible = (firstVisible + 7) % (rowCount - VISIBLE_ROWS);
+		for (int row = firstVisible; row < firstVisible + VISIBLE_ROWS; row++) {
+			for (int col = 0; col < model.getColumnCount(); col++)
+				hash += model.getValueAt(row, col).hashCode();
+		}
+		return hash;
+	}
+}
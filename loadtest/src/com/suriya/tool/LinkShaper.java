@@ -0,0 +1,82 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.util.Random;
+
+/*
+ * This class makes the loopback servers behave like a slower, less reliable
+ * link. Each server opens one Transfer per file it sends and passes every
+ * chunk through it:
+ *
+ *   latency          delay before the first byte of each transfer
+ *   bandwidth        bytes per second shared by all transfers, 0 for no limit
+ *   per connection   bytes per second of one transfer, 0 for no limit
+ *   fault rate       chance that a transfer fails part way, at a random byte
+ *
+ * Faults are drawn from a seeded generator, so a run can be repeated.
+ */
+class LinkShaper {
+
+	private final long latencyMillis;
+	private final long perConnection;
+	private final double faultRate;
+	private final TokenBucket shared;
+	private final Random random;
+
+	LinkShaper(long latencyMillis, long bandwidth, long perConnection, double faultRate, long seed) {
+		this.latencyMillis = latencyMillis;
+		this.perConnection = perConnection;
+		this.faultRate = faultRate;
+		this.shared = new TokenBucket(bandwidth);
+		this.random = new Random(seed);
+	}
+
+	// Start a transfer of length bytes.
+	public Transfer open(long length) {
+		long faultAt = -1L;
+		synchronized (random) {
+			if (length > 0 && random.nextDouble() < faultRate)
+				faultAt = (long) (random.nextDouble() * length);
+		}
+		return new Transfer(faultAt);
+	}
+
+	class Transfer {
+		private final TokenBucket own = new TokenBucket(perConnection);
+		private final long faultAt; // byte the transfer breaks at, -1 for none
+		private boolean started = false;
+		private long sent = 0L;
+
+		Transfer(long faultAt) {
+			this.faultAt = faultAt;
+		}
+
+		// Wait out the latency, once per transfer.
+		public void start() throws IOException {
+			if (started)
+				return;
+			started = true;
+			if (latencyMillis > 0) {
+				try {
+					Thread.sleep(latencyMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted");
+				}
+			}
+		}
+
+		/*
+		 * Called before bytes are sent: waits for the rate limits, or throws
+		 * if the transfer is to break within them.
+		 */
+		public void send(int bytes) throws IOException {
+			start();
+			if (faultAt >= 0 && sent + bytes > faultAt)
+				throw new IOException("Injected fault at byte " + faultAt);
+			own.acquire(bytes);
+			shared.acquire(bytes);
+			sent += bytes;
+		}
+	}
+}
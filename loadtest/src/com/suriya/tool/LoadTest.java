@@ -0,0 +1,345 @@
+package com.suriya.tool;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+/*
+ * This class runs HTTPDownload, FTPDownload and SFTPDownload against
+ * in-process servers on the loopback interface, so throughput and scaling
+ * can be measured, and regressions caught, without real servers:
+ *
+ *   http   the JDK's HttpServer (LoopbackHttpServer)
+ *   ftp    Apache FtpServer (LoopbackFtpServer)
+ *   sftp   Apache MINA SSHD (LoopbackSftpServer)
+ *
+ * A workload is a number of files of one size, such as 10000x100K or 4x20G.
+ * The source files are made once under the work directory and kept for later
+ * runs: files up to 64 MB hold seeded random bytes, larger ones are sparse.
+ * Each protocol downloads the whole workload in a round, resuming failed
+ * downloads up to the retry limit, and the round reports:
+ *
+ *   files complete, bytes and aggregate MB/s
+ *   p50, p99 and max completion time of a file, over all its runs
+ *   retries, peak live threads and peak heap used
+ *
+ * The LinkShaper adds latency, bandwidth limits and injected faults on the
+ * server side. Several rounds, or rounds until a duration has passed, make a
+ * soak test. The exit code is 1 if any file failed or did not verify.
+ */
+public class LoadTest {
+
+	final static Logger log = Logger.getLogger(LoadTest.class);
+
+	public static final String USER = "load";
+	public static final String PASSWORD = "load";
+
+	// Largest source file filled with random bytes; larger ones are sparse.
+	public static final long RANDOM_FILL_LIMIT = 64L * 1024 * 1024;
+
+	// Time between two looks at the downloads and the JVM.
+	public static final long POLL_INTERVAL_MILLIS = 20;
+
+	private List<String> protocols = Arrays.asList("http", "ftp", "sftp");
+	private int fileCount = 100;
+	private long fileSize = 1024L * 1024;
+	private long latencyMillis = 0L;
+	private long bandwidth = 0L;
+	private long perConnection = 0L;
+	private double faultRate = 0.0;
+	private long seed = 1L;
+	private int rounds = 1;
+	private long durationMillis = 0L;
+	private int retries = 3;
+	private boolean verify = false;
+	private boolean keep = false;
+	private File workDirectory = new File("target", "loadtest");
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+	private final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+
+	// Result of one protocol's round.
+	private static class Round {
+		int complete = 0;
+		int failed = 0;
+		int mismatched = 0;
+		int retried = 0;
+		long bytes = 0L;
+		long elapsed = 0L;
+		int peakThreads = 0;
+		long peakHeap = 0L;
+		List<Long> completionTimes = new ArrayList<Long>();
+	}
+
+	// Make the source files that are missing or have the wrong size.
+	List<File> prepareSources() throws IOException {
+		File sourceDirectory = new File(workDirectory, "source-" + fileCount + "x" + fileSize);
+		sourceDirectory.mkdirs();
+		List<File> sources = new ArrayList<File>();
+		byte[] buffer = new byte[64 * 1024];
+		for (int i = 0; i < fileCount; i++) {
+			File source = new File(sourceDirectory, String.format("file-%06d.bin", i));
+			sources.add(source);
+			if (source.length() == fileSize)
+				continue;
+			if (fileSize > RANDOM_FILL_LIMIT) {
+				RandomAccessFile sparse = new RandomAccessFile(source, "rw");
+				try {
+					sparse.setLength(fileSize);
+				} finally {
+					sparse.close();
+				}
+				continue;
+			}
+			Random random = new Random(seed + i);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(source));
+			try {
+				for (long written = 0L; written < fileSize; written += buffer.length) {
+					random.nextBytes(buffer);
+					out.write(buffer, 0, (int) Math.min(buffer.length, fileSize - written));
+				}
+			} finally {
+				out.close();
+			}
+		}
+		return sources;
+	}
+
+	// Run every round, each protocol in turn. Returns the number of files that failed or did not verify.
+	int run() throws Exception {
+		List<File> sources = prepareSources();
+		File root = sources.get(0).getParentFile();
+		File downloadDirectory = new File(workDirectory, "download");
+		SimpleDownload.loadConfig().setProperty("BASE.DOWNLOAD.PATH", downloadDirectory.getAbsolutePath());
+
+		LinkShaper shaper = new LinkShaper(latencyMillis, bandwidth, perConnection, faultRate, seed);
+		LoopbackHttpServer http = new LoopbackHttpServer(root, shaper);
+		LoopbackFtpServer ftp = new LoopbackFtpServer(root, shaper, USER, PASSWORD, 1000);
+		LoopbackSftpServer sftp = new LoopbackSftpServer(root, shaper, USER, PASSWORD);
+		int httpPort = http.start();
+		int ftpPort = ftp.start();
+		int sftpPort = sftp.start();
+
+		System.out.println("Workload " + fileCount + " x " + FileUtils.byteCountToDisplaySize(fileSize) + ", latency "
+				+ latencyMillis + " ms, bandwidth " + bandwidth + " B/s, per connection " + perConnection
+				+ " B/s, fault rate " + faultRate);
+		int failures = 0;
+		long started = System.currentTimeMillis();
+		try {
+			for (int round = 1; round <= rounds || System.currentTimeMillis() - started < durationMillis; round++) {
+				for (String protocol : protocols) {
+					int port = protocol.equals("http") ? httpPort : protocol.equals("ftp") ? ftpPort : sftpPort;
+					String localDirectory = protocol + "-" + round;
+					Round result = runRound(protocol, port, sources, localDirectory);
+					report(protocol, round, result);
+					failures += result.failed + result.mismatched;
+
+					File roundDirectory = new File(SimpleDownload.getDownloadPath("127.0.0.1", localDirectory));
+					if (!keep)
+						FileUtils.deleteQuietly(roundDirectory);
+				}
+			}
+		} finally {
+			http.stop();
+			ftp.stop();
+			sftp.stop();
+		}
+		return failures;
+	}
+
+	private Round runRound(String protocol, int port, List<File> sources, String localDirectory) throws Exception {
+		Round result = new Round();
+		threads.resetPeakThreadCount();
+		System.gc();
+
+		long started = System.currentTimeMillis();
+		List<SimpleDownload> downloads = new ArrayList<SimpleDownload>();
+		for (File source : sources) {
+			String credentials = protocol.equals("http") ? "" : "," + USER + "," + PASSWORD;
+			URI uri = new URI(protocol + "://127.0.0.1:" + port + "/" + source.getName() + credentials);
+			downloads.add(DownloadEngine.newDownload(uri, localDirectory, null));
+		}
+
+		// Time spent in earlier, failed runs of each download.
+		long[] failedRunTime = new long[downloads.size()];
+		int[] attempts = new int[downloads.size()];
+		boolean[] finished = new boolean[downloads.size()];
+		int left = downloads.size();
+		while (left > 0) {
+			Thread.sleep(POLL_INTERVAL_MILLIS);
+			result.peakHeap = Math.max(result.peakHeap, memory.getHeapMemoryUsage().getUsed());
+			for (int i = 0; i < downloads.size(); i++) {
+				if (finished[i])
+					continue;
+				SimpleDownload download = downloads.get(i);
+				// Wait for a run to end before resuming or timing it.
+				if (download.isRunning())
+					continue;
+				int status = download.getStatus();
+				if (status == SimpleDownload.ERROR && attempts[i] < retries) {
+					failedRunTime[i] += download.getElapsedTime();
+					attempts[i]++;
+					result.retried++;
+					download.resume();
+				} else if (status == SimpleDownload.COMPLETE || status == SimpleDownload.ERROR
+						|| status == SimpleDownload.CANCELLED) {
+					finished[i] = true;
+					left--;
+					if (status == SimpleDownload.COMPLETE) {
+						result.complete++;
+						result.completionTimes.add(failedRunTime[i] + download.getElapsedTime());
+					} else {
+						result.failed++;
+					}
+				}
+			}
+		}
+		result.elapsed = System.currentTimeMillis() - started;
+		result.peakThreads = threads.getPeakThreadCount();
+
+		for (int i = 0; i < downloads.size(); i++) {
+			SimpleDownload download = downloads.get(i);
+			if (download.getStatus() != SimpleDownload.COMPLETE)
+				continue;
+			File local = new File(download.getDownloadPath(), sources.get(i).getName());
+			result.bytes += local.length();
+			if (local.length() != sources.get(i).length()
+					|| (verify && !FileUtils.contentEquals(local, sources.get(i)))) {
+				log.error("The downloaded " + local + " differs from its source");
+				result.mismatched++;
+			}
+		}
+		return result;
+	}
+
+	private void report(String protocol, int round, Round result) {
+		List<Long> times = result.completionTimes;
+		Collections.sort(times);
+		double seconds = result.elapsed / 1000.0;
+		System.out.println(String.format(
+				"%-4s round %d: %d/%d complete, %d failed, %d mismatched, %s in %.1f s, %.2f MB/s,"
+						+ " completion p50 %d ms p99 %d ms max %d ms, %d retries, peak threads %d, peak heap %s",
+				protocol, round, result.complete, fileCount, result.failed, result.mismatched,
+				FileUtils.byteCountToDisplaySize(result.bytes), seconds, result.bytes / 1048576.0 / seconds,
+				percentile(times, 0.50), percentile(times, 0.99), times.isEmpty() ? 0L : times.get(times.size() - 1),
+				result.retried, result.peakThreads, FileUtils.byteCountToDisplaySize(result.peakHeap)));
+	}
+
+	private static long percentile(List<Long> sorted, double fraction) {
+		if (sorted.isEmpty())
+			return 0L;
+		int index = (int) Math.ceil(fraction * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index));
+	}
+
+	// Parse a byte count with an optional K, M or G suffix.
+	static long parseSize(String value) {
+		value = value.trim().toUpperCase();
+		long unit = 1L;
+		if (value.endsWith("K"))
+			unit = 1024L;
+		else if (value.endsWith("M"))
+			unit = 1024L * 1024;
+		else if (value.endsWith("G"))
+			unit = 1024L * 1024 * 1024;
+		if (unit > 1)
+			value = value.substring(0, value.length() - 1);
+		return Long.parseLong(value) * unit;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: LoadTest [--workload NxSIZE] [--protocols http,ftp,sftp] [--latency MS]"
+				+ " [--bandwidth RATE] [--per-connection RATE] [--fault-rate P] [--seed N] [--rounds N]"
+				+ " [--duration MINUTES] [--retries N] [--max-active N] [--per-host N] [--segments N]"
+				+ " [--autotune true|false] [--dir DIR] [--verify] [--keep] [--log-level LEVEL]");
+		System.exit(2);
+	}
+
+	public static void main(String[] args) throws Exception {
+		PropertyConfigurator.configure("log4j.properties");
+		Logger.getRootLogger().setLevel(Level.WARN);
+
+		LoadTest test = new LoadTest();
+		Properties config = SimpleDownload.loadConfig();
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--verify")) {
+				test.verify = true;
+				continue;
+			}
+			if (arg.equals("--keep")) {
+				test.keep = true;
+				continue;
+			}
+			if (!arg.startsWith("--") || i + 1 == args.length)
+				usage();
+			String value = args[++i];
+			if (arg.equals("--workload")) {
+				String[] parts = value.toLowerCase().split("x", 2);
+				if (parts.length != 2)
+					usage();
+				test.fileCount = Integer.parseInt(parts[0]);
+				test.fileSize = parseSize(parts[1]);
+			} else if (arg.equals("--protocols")) {
+				test.protocols = Arrays.asList(value.toLowerCase().split(","));
+			} else if (arg.equals("--latency")) {
+				test.latencyMillis = Long.parseLong(value);
+			} else if (arg.equals("--bandwidth")) {
+				test.bandwidth = parseSize(value);
+			} else if (arg.equals("--per-connection")) {
+				test.perConnection = parseSize(value);
+			} else if (arg.equals("--fault-rate")) {
+				test.faultRate = Double.parseDouble(value);
+			} else if (arg.equals("--seed")) {
+				test.seed = Long.parseLong(value);
+			} else if (arg.equals("--rounds")) {
+				test.rounds = Integer.parseInt(value);
+			} else if (arg.equals("--duration")) {
+				test.durationMillis = Long.parseLong(value) * 60000L;
+			} else if (arg.equals("--retries")) {
+				test.retries = Integer.parseInt(value);
+			} else if (arg.equals("--max-active")) {
+				config.setProperty("SCHEDULER.MAX.ACTIVE", value);
+			} else if (arg.equals("--per-host")) {
+				config.setProperty("SCHEDULER.MAX.PER.HOST", value);
+			} else if (arg.equals("--segments")) {
+				config.setProperty("HTTP.SEGMENTS", value);
+				config.setProperty("FTP.SEGMENTS", value);
+				config.setProperty("SFTP.SEGMENTS", value);
+			} else if (arg.equals("--autotune")) {
+				config.setProperty("AUTOTUNE", value);
+			} else if (arg.equals("--dir")) {
+				test.workDirectory = new File(value);
+			} else if (arg.equals("--log-level")) {
+				Logger.getRootLogger().setLevel(Level.toLevel(value));
+			} else {
+				usage();
+			}
+		}
+		for (String protocol : test.protocols) {
+			if (!protocol.equals("http") && !protocol.equals("ftp") && !protocol.equals("sftp"))
+				usage();
+		}
+
+		int failures = test.run();
+		System.exit(failures == 0 ? 0 : 1);
+	}
+}
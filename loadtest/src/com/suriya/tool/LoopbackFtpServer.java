@@ -0,0 +1,233 @@
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.ftpserver.ConnectionConfigFactory;
+import org.apache.ftpserver.FtpServer;
+import org.apache.ftpserver.FtpServerFactory;
+import org.apache.ftpserver.filesystem.nativefs.NativeFileSystemFactory;
+import org.apache.ftpserver.ftplet.Authority;
+import org.apache.ftpserver.ftplet.FileSystemFactory;
+import org.apache.ftpserver.ftplet.FileSystemView;
+import org.apache.ftpserver.ftplet.FtpException;
+import org.apache.ftpserver.ftplet.FtpFile;
+import org.apache.ftpserver.ftplet.User;
+import org.apache.ftpserver.listener.ListenerFactory;
+import org.apache.ftpserver.usermanager.impl.BaseUser;
+import org.apache.ftpserver.usermanager.impl.ConcurrentLoginPermission;
+
+/*
+ * This class serves a directory over FTP on the loopback interface with an
+ * embedded Apache FtpServer. Files are read through the LinkShaper, so every
+ * RETR, whole or from a REST offset, is one shaped transfer.
+ */
+class LoopbackFtpServer {
+
+	private final File root;
+	private final LinkShaper shaper;
+	private final String user;
+	private final String password;
+	private final int maxLogins;
+	private FtpServer server;
+
+	LoopbackFtpServer(File root, LinkShaper shaper, String user, String password, int maxLogins) {
+		this.root = root;
+		this.shaper = shaper;
+		this.user = user;
+		this.password = password;
+		this.maxLogins = maxLogins;
+	}
+
+	// Start on a free port. Returns the port.
+	public int start() throws FtpException {
+		FtpServerFactory factory = new FtpServerFactory();
+		ListenerFactory listener = new ListenerFactory();
+		listener.setServerAddress("127.0.0.1");
+		listener.setPort(0);
+		factory.addListener("default", listener.createListener());
+
+		BaseUser account = new BaseUser();
+		account.setName(user);
+		account.setPassword(password);
+		account.setHomeDirectory(root.getAbsolutePath());
+		account.setAuthorities(Arrays.<Authority> asList(new ConcurrentLoginPermission(maxLogins, maxLogins)));
+		factory.getUserManager().save(account);
+
+		ConnectionConfigFactory connections = new ConnectionConfigFactory();
+		connections.setMaxLogins(maxLogins);
+		connections.setMaxThreads(maxLogins * 2);
+		factory.setConnectionConfig(connections.createConnectionConfig());
+		factory.setFileSystem(new ShapedFileSystemFactory(new NativeFileSystemFactory()));
+
+		server = factory.createServer();
+		server.start();
+		return factory.getListener("default").getPort();
+	}
+
+	public void stop() {
+		server.stop();
+	}
+
+	private class ShapedFileSystemFactory implements FileSystemFactory {
+		private final FileSystemFactory files;
+
+		ShapedFileSystemFactory(FileSystemFactory files) {
+			this.files = files;
+		}
+
+		public FileSystemView createFileSystemView(User user) throws FtpException {
+			return new ShapedFileSystemView(files.createFileSystemView(user));
+		}
+	}
+
+	private class ShapedFileSystemView implements FileSystemView {
+		private final FileSystemView view;
+
+		ShapedFileSystemView(FileSystemView view) {
+			this.view = view;
+		}
+
+		public FtpFile getHomeDirectory() throws FtpException {
+			return new ShapedFile(view.getHomeDirectory());
+		}
+
+		public FtpFile getWorkingDirectory() throws FtpException {
+			return new ShapedFile(view.getWorkingDirectory());
+		}
+
+		public boolean changeWorkingDirectory(String dir) throws FtpException {
+			return view.changeWorkingDirectory(dir);
+		}
+
+		public FtpFile getFile(String file) throws FtpException {
+			return new ShapedFile(view.getFile(file));
+		}
+
+		public boolean isRandomAccessible() throws FtpException {
+			return view.isRandomAccessible();
+		}
+
+		public void dispose() {
+			view.dispose();
+		}
+	}
+
+	// A file whose input streams are shaped; everything else is passed on.
+	private class ShapedFile implements FtpFile {
+		private final FtpFile file;
+
+		ShapedFile(FtpFile file) {
+			this.file = file;
+		}
+
+		public InputStream createInputStream(long offset) throws IOException {
+			final LinkShaper.Transfer transfer = shaper.open(file.getSize() - offset);
+			transfer.start();
+			return new FilterInputStream(file.createInputStream(offset)) {
+				public int read(byte[] buffer, int offset, int length) throws IOException {
+					int read = super.read(buffer, offset, length);
+					if (read > 0)
+						transfer.send(read);
+					return read;
+				}
+			};
+		}
+
+		public OutputStream createOutputStream(long offset) throws IOException {
+			return file.createOutputStream(offset);
+		}
+
+		public List<? extends FtpFile> listFiles() {
+			List<? extends FtpFile> listed = file.listFiles();
+			if (listed == null)
+				return null;
+			List<FtpFile> shaped = new ArrayList<FtpFile>();
+			for (FtpFile child : listed)
+				shaped.add(new ShapedFile(child));
+			return shaped;
+		}
+
+		public String getAbsolutePath() {
+			return file.getAbsolutePath();
+		}
+
+		public String getName() {
+			return file.getName();
+		}
+
+		public boolean isHidden() {
+			return file.isHidden();
+		}
+
+		public boolean isDirectory() {
+			return file.isDirectory();
+		}
+
+		public boolean isFile() {
+			return file.isFile();
+		}
+
+		public boolean doesExist() {
+			return file.doesExist();
+		}
+
+		public boolean isReadable() {
+			return file.isReadable();
+		}
+
+		public boolean isWritable() {
+			return file.isWritable();
+		}
+
+		public boolean isRemovable() {
+			return file.isRemovable();
+		}
+
+		public String getOwnerName() {
+			return file.getOwnerName();
+		}
+
+		public String getGroupName() {
+			return file.getGroupName();
+		}
+
+		public int getLinkCount() {
+			return file.getLinkCount();
+		}
+
+		public long getLastModified() {
+			return file.getLastModified();
+		}
+
+		public boolean setLastModified(long time) {
+			return file.setLastModified(time);
+		}
+
+		public long getSize() {
+			return file.getSize();
+		}
+
+		public Object getPhysicalFile() {
+			return file.getPhysicalFile();
+		}
+
+		public boolean mkdir() {
+			return file.mkdir();
+		}
+
+		public boolean delete() {
+			return file.delete();
+		}
+
+		public boolean move(FtpFile destination) {
+			return file.move((destination instanceof ShapedFile) ? ((ShapedFile) destination).file : destination);
+		}
+	}
+}
@@ -0,0 +1,122 @@
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/*
+ * This class serves the files of a directory over HTTP/1.1 on the loopback
+ * interface with the JDK's HttpServer, answering HEAD and single byte range
+ * requests the way HTTPDownload expects.
+ */
+class LoopbackHttpServer implements HttpHandler {
+
+	// Size of each write to the response.
+	public static final int CHUNK_SIZE = 64 * 1024;
+
+	private final File root;
+	private final LinkShaper shaper;
+	private HttpServer server;
+	private ExecutorService executor;
+
+	LoopbackHttpServer(File root, LinkShaper shaper) {
+		this.root = root;
+		this.shaper = shaper;
+	}
+
+	// Start on a free port. Returns the port.
+	public int start() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+		executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.createContext("/", this);
+		server.start();
+		return server.getAddress().getPort();
+	}
+
+	public void stop() {
+		server.stop(0);
+		executor.shutdownNow();
+	}
+
+	public void handle(HttpExchange exchange) throws IOException {
+		try {
+			File file = new File(root, exchange.getRequestURI().getPath().substring(1));
+			if (!file.isFile()) {
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+			long length = file.length();
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			exchange.getResponseHeaders().set("Last-Modified", httpDate(file.lastModified()));
+
+			long first = 0L;
+			long last = length - 1;
+			String range = exchange.getRequestHeaders().getFirst("Range");
+			if (range != null && range.startsWith("bytes=")) {
+				String[] bounds = range.substring(6).split("-", 2);
+				first = Long.parseLong(bounds[0].trim());
+				if (bounds.length > 1 && bounds[1].trim().length() > 0)
+					last = Math.min(last, Long.parseLong(bounds[1].trim()));
+				if (first > last) {
+					exchange.getResponseHeaders().set("Content-Range", "bytes */" + length);
+					exchange.sendResponseHeaders(416, -1);
+					return;
+				}
+				exchange.getResponseHeaders().set("Content-Range", "bytes " + first + "-" + last + "/" + length);
+			}
+			int code = (range != null) ? 206 : 200;
+			long count = last - first + 1;
+
+			if (exchange.getRequestMethod().equals("HEAD")) {
+				exchange.getResponseHeaders().set("Content-Length", Long.toString(count));
+				exchange.sendResponseHeaders(code, -1);
+				return;
+			}
+			LinkShaper.Transfer transfer = shaper.open(count);
+			transfer.start();
+			exchange.sendResponseHeaders(code, count);
+			send(file, first, count, exchange.getResponseBody(), transfer);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	// Copy count bytes of the file from first on, a chunk at a time.
+	private static void send(File file, long first, long count, OutputStream out, LinkShaper.Transfer transfer)
+			throws IOException {
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		byte[] buffer = new byte[CHUNK_SIZE];
+		try {
+			input.seek(first);
+			while (count > 0) {
+				int read = input.read(buffer, 0, (int) Math.min(buffer.length, count));
+				if (read == -1)
+					break;
+				transfer.send(read);
+				out.write(buffer, 0, read);
+				count -= read;
+			}
+		} finally {
+			input.close();
+		}
+	}
+
+	private static String httpDate(long millis) {
+		SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US);
+		format.setTimeZone(TimeZone.getTimeZone("GMT"));
+		return format.format(new Date(millis));
+	}
+}
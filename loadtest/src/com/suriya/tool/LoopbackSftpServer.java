@@ -0,0 +1,89 @@
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sshd.common.config.keys.KeyUtils;
+import org.apache.sshd.common.file.virtualfs.VirtualFileSystemFactory;
+import org.apache.sshd.server.SshServer;
+import org.apache.sshd.server.auth.password.PasswordAuthenticator;
+import org.apache.sshd.server.keyprovider.SimpleGeneratorHostKeyProvider;
+import org.apache.sshd.server.session.ServerSession;
+import org.apache.sshd.sftp.server.FileHandle;
+import org.apache.sshd.sftp.server.Handle;
+import org.apache.sshd.sftp.server.SftpEventListener;
+import org.apache.sshd.sftp.server.SftpSubsystemFactory;
+
+/*
+ * This class serves a directory over SFTP on the loopback interface with an
+ * embedded Apache MINA SSHD. Every open file handle is one shaped transfer:
+ * the latency is paid when it is opened, and each read request is throttled
+ * or failed before its data is sent. The host key is generated in memory, as
+ * an EC key JSch accepts.
+ */
+class LoopbackSftpServer implements SftpEventListener {
+
+	private final File root;
+	private final LinkShaper shaper;
+	private final String user;
+	private final String password;
+	private final Map<String, LinkShaper.Transfer> transfers = new ConcurrentHashMap<String, LinkShaper.Transfer>();
+	private SshServer server;
+
+	LoopbackSftpServer(File root, LinkShaper shaper, String user, String password) {
+		this.root = root;
+		this.shaper = shaper;
+		this.user = user;
+		this.password = password;
+	}
+
+	// Start on a free port. Returns the port.
+	public int start() throws IOException {
+		server = SshServer.setUpDefaultServer();
+		server.setHost("127.0.0.1");
+		server.setPort(0);
+		SimpleGeneratorHostKeyProvider keys = new SimpleGeneratorHostKeyProvider();
+		keys.setAlgorithm(KeyUtils.EC_ALGORITHM);
+		keys.setKeySize(256);
+		server.setKeyPairProvider(keys);
+		server.setPasswordAuthenticator(new PasswordAuthenticator() {
+			public boolean authenticate(String name, String secret, ServerSession session) {
+				return user.equals(name) && password.equals(secret);
+			}
+		});
+		server.setFileSystemFactory(new VirtualFileSystemFactory(root.getAbsoluteFile().toPath()));
+		SftpSubsystemFactory sftp = new SftpSubsystemFactory();
+		sftp.addSftpEventListener(this);
+		server.setSubsystemFactories(Collections.singletonList(sftp));
+		server.start();
+		return server.getPort();
+	}
+
+	public void stop() throws IOException {
+		server.stop(true);
+	}
+
+	public void open(ServerSession session, String remoteHandle, Handle localHandle) throws IOException {
+		if (!(localHandle instanceof FileHandle))
+			return;
+		File file = localHandle.getFile().toFile();
+		LinkShaper.Transfer transfer = shaper.open(file.length());
+		transfers.put(remoteHandle, transfer);
+		transfer.start();
+	}
+
+	public void reading(ServerSession session, String remoteHandle, FileHandle localHandle, long offset, byte[] data,
+			int dataOffset, int dataLen) throws IOException {
+		LinkShaper.Transfer transfer = transfers.get(remoteHandle);
+		if (transfer != null)
+			transfer.send(dataLen);
+	}
+
+	public void closed(ServerSession session, String remoteHandle, Handle localHandle, Throwable thrown)
+			throws IOException {
+		transfers.remove(remoteHandle);
+	}
+}
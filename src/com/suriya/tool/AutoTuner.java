@@ -0,0 +1,381 @@
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class tunes the segment count, the copy buffer size and the socket
+ * receive buffer of each host from the throughput of finished runs. A host
+ * starts from the configured settings, or from the best remembered for it.
+ * Once runs on the best settings have set a baseline, one setting at a time is
+ * doubled and given to the next runs to the host. It is kept and doubled
+ * again while the trial runs beat the best by MIN_GAIN, and the search moves
+ * on to the next setting when they do not or a trial run fails. If runs keep
+ * failing on the best settings, the segment count is halved. After
+ * RUNS_BETWEEN_SEARCHES runs the search starts again, so the settings follow a
+ * changing link. The best settings of each host are saved for the next job.
+ *
+ * The JDK's HttpClient takes one receive buffer for all connections, set as
+ * HTTP.RECEIVE.BUFFER.SIZE, so HTTP hosts only tune segments and buffer size.
+ * SFTP sessions are shared by the transfers to a host, so a receive buffer
+ * applies from the next session opened to it.
+ *
+ * Settings in config.properties:
+ *   AUTOTUNE                          true to tune, false to use the settings below (default false)
+ *   <PROTOCOL>.SEGMENTS               starting segment count (default 1)
+ *   <PROTOCOL>.BUFFER.SIZE            starting copy buffer size (default 65536)
+ *   <PROTOCOL>.RECEIVE.BUFFER.SIZE    starting socket receive buffer (default 0 = system default)
+ *   AUTOTUNE.MAX.SEGMENTS             most segments tried for one file (default 16)
+ *   AUTOTUNE.MAX.BUFFER.SIZE          largest copy buffer tried (default 1048576)
+ *   AUTOTUNE.MAX.RECEIVE.BUFFER.SIZE  largest socket receive buffer tried (default 8388608)
+ *   AUTOTUNE.MIN.SAMPLE.SIZE          fewest bytes a run needs to be measured (default 4194304)
+ *   AUTOTUNE.FILE                     where the best settings are kept
+ *                                     (default .autotune.properties in BASE.DOWNLOAD.PATH)
+ */
+class AutoTuner {
+
+	final static Logger log = Logger.getLogger(AutoTuner.class);
+
+	// Share of throughput a trial has to gain over the best to be kept.
+	public static final double MIN_GAIN = 0.10;
+
+	// Measured runs a trial gets before it is judged.
+	public static final int TRIAL_RUNS = 2;
+
+	// Runs on the best settings before the search starts again.
+	public static final int RUNS_BETWEEN_SEARCHES = 20;
+
+	// Share of failed runs above which the segment count is halved.
+	public static final double MAX_ERROR_RATE = 0.25;
+
+	// Weight of the newest run in the averaged throughput and error rate.
+	private static final double SMOOTHING = 0.3;
+
+	// First receive buffer tried after the system default.
+	public static final int MIN_RECEIVE_BUFFER_SIZE = 256 * 1024;
+
+	// The tuned settings, in the order they are searched.
+	public static final int SEGMENTS = 0;
+	public static final int BUFFER_SIZE = 1;
+	public static final int RECEIVE_BUFFER_SIZE = 2;
+	private static final String[] NAMES = { "segments", "buffer.size", "receive.buffer.size" };
+
+	private static AutoTuner instance = null;
+
+	// The settings for one run. A run keeps the object it started with.
+	static class Settings {
+		private final int[] values;
+
+		Settings(int segments, int bufferSize, int receiveBufferSize) {
+			this(new int[] { segments, bufferSize, receiveBufferSize });
+		}
+
+		private Settings(int[] values) {
+			this.values = values;
+		}
+
+		public int getSegments() {
+			return values[SEGMENTS];
+		}
+
+		public int getBufferSize() {
+			return values[BUFFER_SIZE];
+		}
+
+		// Get the socket receive buffer, 0 for the system default.
+		public int getReceiveBufferSize() {
+			return values[RECEIVE_BUFFER_SIZE];
+		}
+
+		Settings with(int setting, int value) {
+			int[] changed = values.clone();
+			changed[setting] = value;
+			return new Settings(changed);
+		}
+
+		public String toString() {
+			return "segments:" + getSegments() + ", buffer:" + getBufferSize() + ", receive buffer:"
+					+ getReceiveBufferSize();
+		}
+	}
+
+	// Where the search of one host stands.
+	private static class Host {
+		final String key;
+		final int[] tuned; // settings tuned for the host's protocol
+		Settings best;
+		double bestThroughput = 0.0; // averaged bytes per second, 0 until measured
+		int runsOnBest = 0;
+		Settings trial = null; // null when not searching
+		int searching = 0; // index into tuned of the setting being searched
+		double trialThroughput = 0.0;
+		int trialRuns = 0;
+		double errorRate = 0.0;
+
+		Host(String key, int[] tuned, Settings best) {
+			this.key = key;
+			this.tuned = tuned;
+			this.best = best;
+		}
+	}
+
+	private final Properties config;
+	private final boolean enabled;
+	private final int[] limits = new int[NAMES.length];
+	private final long minSampleSize;
+	private final File file;
+	private final Properties remembered = new Properties();
+	private final Map<String, Host> hosts = new HashMap<String, Host>();
+
+	AutoTuner(Properties config) {
+		this.config = config;
+		enabled = Boolean.parseBoolean(config.getProperty("AUTOTUNE", "false").trim());
+		limits[SEGMENTS] = getInt("AUTOTUNE.MAX.SEGMENTS", 16);
+		limits[BUFFER_SIZE] = getInt("AUTOTUNE.MAX.BUFFER.SIZE", 1024 * 1024);
+		limits[RECEIVE_BUFFER_SIZE] = getInt("AUTOTUNE.MAX.RECEIVE.BUFFER.SIZE", 8 * 1024 * 1024);
+		minSampleSize = getLong("AUTOTUNE.MIN.SAMPLE.SIZE", 4L * 1024 * 1024);
+		String path = config.getProperty("AUTOTUNE.FILE", "").trim();
+		String directory = config.getProperty("BASE.DOWNLOAD.PATH", System.getProperty("user.dir"));
+		file = (path.length() > 0) ? new File(path) : new File(directory, ".autotune.properties");
+		if (enabled)
+			load();
+	}
+
+	public static synchronized AutoTuner getInstance() {
+		if (instance == null)
+			instance = new AutoTuner(SimpleDownload.loadConfig());
+		return instance;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// Get the settings for a run of a download, or null if tuning is off.
+	public Settings settingsFor(SimpleDownload download) {
+		if (!enabled)
+			return null;
+		synchronized (this) {
+			Host host = host(download.uri.getScheme(), download.uri.getHost());
+			return (host.trial != null) ? host.trial : host.best;
+		}
+	}
+
+	/*
+	 * Get the receive buffer for a new connection to a host, 0 for the system
+	 * default. For connections shared by the transfers to a host.
+	 */
+	public int getReceiveBufferSize(String protocol, String host) {
+		if (!enabled)
+			return Math.max(0, getInt(protocol.toUpperCase() + ".RECEIVE.BUFFER.SIZE", 0));
+		synchronized (this) {
+			Host tuning = host(protocol, host);
+			return ((tuning.trial != null) ? tuning.trial : tuning.best).getReceiveBufferSize();
+		}
+	}
+
+	/*
+	 * Called as a run ends with the settings it started with, the bytes it
+	 * moved and its throughput in bytes per second.
+	 */
+	public synchronized void record(SimpleDownload download, Settings used, boolean failed, long bytes,
+			long throughput) {
+		Host host = host(download.uri.getScheme(), download.uri.getHost());
+		boolean measured = !failed && bytes >= minSampleSize && throughput > 0;
+		if (!failed && !measured)
+			return;
+		host.errorRate = SMOOTHING * (failed ? 1.0 : 0.0) + (1 - SMOOTHING) * host.errorRate;
+
+		if (failed) {
+			if (used == host.trial) {
+				log.info(host.key + ": trial " + used + " failed, keeping " + host.best);
+				searchNext(host);
+			} else if (used == host.best && host.errorRate > MAX_ERROR_RATE && host.best.getSegments() > 1) {
+				// Too many connections is the usual cause; measure the smaller count afresh.
+				host.best = host.best.with(SEGMENTS, host.best.getSegments() / 2);
+				host.bestThroughput = 0.0;
+				host.runsOnBest = 0;
+				host.trial = null;
+				host.errorRate = 0.0;
+				log.info(host.key + ": runs keep failing, backing off to " + host.best);
+				save(host);
+			}
+			return;
+		}
+
+		if (used == host.best) {
+			host.bestThroughput = (host.bestThroughput == 0.0) ? throughput
+					: SMOOTHING * throughput + (1 - SMOOTHING) * host.bestThroughput;
+			host.runsOnBest++;
+			if (host.trial == null && (host.runsOnBest == 1 || host.runsOnBest > RUNS_BETWEEN_SEARCHES)) {
+				host.searching = -1;
+				searchNext(host);
+			}
+		} else if (used == host.trial) {
+			host.trialThroughput += throughput;
+			if (++host.trialRuns < TRIAL_RUNS)
+				return;
+			double average = host.trialThroughput / host.trialRuns;
+			if (average > host.bestThroughput * (1 + MIN_GAIN)) {
+				log.info(host.key + ": " + used + " gives " + (long) average + " B/s, up from "
+						+ (long) host.bestThroughput);
+				host.best = used;
+				host.bestThroughput = average;
+				save(host);
+				startTrial(host);
+				if (host.trial == null)
+					searchNext(host);
+			} else {
+				log.debug(host.key + ": " + used + " gives " + (long) average + " B/s, no gain over "
+						+ (long) host.bestThroughput);
+				searchNext(host);
+			}
+		}
+		// Runs on settings replaced since they started are not compared.
+	}
+
+	// Move on to the next setting of the host, or end the search after the last.
+	private void searchNext(Host host) {
+		host.trial = null;
+		while (host.trial == null && ++host.searching < host.tuned.length)
+			startTrial(host);
+		if (host.trial == null) {
+			host.runsOnBest = 1;
+			log.info(host.key + ": settled on " + host.best + " at " + (long) host.bestThroughput + " B/s");
+		}
+	}
+
+	// Try the setting being searched one step up from the best, if below its limit.
+	private void startTrial(Host host) {
+		int setting = host.tuned[host.searching];
+		int value = host.best.values[setting];
+		int next;
+		if (setting == RECEIVE_BUFFER_SIZE && value <= 0)
+			next = MIN_RECEIVE_BUFFER_SIZE;
+		else
+			next = (value >= limits[setting] / 2) ? limits[setting] : value * 2;
+		if (next <= value) {
+			host.trial = null;
+			return;
+		}
+		host.trial = host.best.with(setting, next);
+		host.trialThroughput = 0.0;
+		host.trialRuns = 0;
+		log.debug(host.key + ": trying " + host.trial);
+	}
+
+	// Find or create the search of a host, starting from what was remembered for it.
+	private Host host(String protocol, String name) {
+		protocol = protocol.toLowerCase();
+		String key = protocol + "://" + ((name != null) ? name.toLowerCase() : "");
+		Host host = hosts.get(key);
+		if (host == null) {
+			String prefix = protocol.toUpperCase() + ".";
+			Settings start = new Settings(Math.max(1, getInt(prefix + "SEGMENTS", 1)),
+					Math.max(1, getInt(prefix + "BUFFER.SIZE", SimpleDownload.DEFAULT_BUFFER_SIZE)),
+					Math.max(0, getInt(prefix + "RECEIVE.BUFFER.SIZE", 0)));
+			for (int setting = 0; setting < NAMES.length; setting++) {
+				// A hand-edited or damaged file only loses the values it got wrong.
+				String property = key + "." + NAMES[setting];
+				int value = getInt(remembered, property, -1);
+				if (value >= ((setting == RECEIVE_BUFFER_SIZE) ? 0 : 1))
+					start = start.with(setting, value);
+				else if (value != -1)
+					log.error("Invalid value for " + property + ": " + value);
+			}
+			int[] tuned = protocol.equals("http") || protocol.equals("https")
+					? new int[] { SEGMENTS, BUFFER_SIZE }
+					: new int[] { SEGMENTS, BUFFER_SIZE, RECEIVE_BUFFER_SIZE };
+			host = new Host(key, tuned, start);
+			hosts.put(key, host);
+			log.debug(key + ": starting from " + start + " (tuning " + Arrays.toString(tuned) + ")");
+		}
+		return host;
+	}
+
+	private int getInt(String key, int defaultValue) {
+		return getInt(config, key, defaultValue);
+	}
+
+	private static int getInt(Properties properties, String key, int defaultValue) {
+		String value = properties.getProperty(key);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private long getLong(String key, long defaultValue) {
+		String value = config.getProperty(key);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	private void load() {
+		if (!file.exists())
+			return;
+
+		InputStream input = null;
+		try {
+			input = new FileInputStream(file);
+			remembered.load(input);
+		} catch (IOException e) {
+			log.error("Error when reading the tuned settings " + file + ": " + e.getMessage());
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	// Remember a host's best settings. Written to a temporary file first, like the download index.
+	private void save(Host host) {
+		for (int setting = 0; setting < NAMES.length; setting++)
+			remembered.setProperty(host.key + "." + NAMES[setting], Integer.toString(host.best.values[setting]));
+
+		File tempFile = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(tempFile);
+			remembered.store(output, "Best transfer settings per host");
+			output.close();
+			output = null;
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error("Error when writing the tuned settings " + file + ": " + e.getMessage());
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
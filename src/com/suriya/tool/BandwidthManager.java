@@ -0,0 +1,188 @@
+package com.suriya.tool;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class shapes the bandwidth of all transfers. Every chunk passes the
+ * download's own bucket, its host's bucket and the bucket of its priority
+ * class. The class buckets split the global rate by weight between the
+ * classes that have running downloads, so an idle class leaves its share to
+ * the others. All rates can be changed while transfers run.
+ *
+ * Settings in config.properties, rates in bytes per second (0 = no limit):
+ *   BANDWIDTH.GLOBAL          all transfers together
+ *   BANDWIDTH.PER.HOST        each host, unless BANDWIDTH.HOST.<host> is set
+ *   BANDWIDTH.PER.DOWNLOAD    each download
+ *   BANDWIDTH.WEIGHTS         shares of the high, normal and low classes (default 4,2,1)
+ */
+class BandwidthManager {
+
+	final static Logger log = Logger.getLogger(BandwidthManager.class);
+
+	private static BandwidthManager instance = null;
+
+	private final Properties config;
+	private volatile long globalRate;
+	private volatile long hostRate;
+	private final long downloadRate;
+	private final int[] weights = { 4, 2, 1 };
+
+	private final TokenBucket[] classBuckets = new TokenBucket[SimpleDownload.PRIORITY_LOW + 1];
+	private final int[] activePerClass = new int[SimpleDownload.PRIORITY_LOW + 1];
+	// Class each running download was counted in, as its priority may change while it runs.
+	private final Map<SimpleDownload, Integer> countedClass = new HashMap<SimpleDownload, Integer>();
+	private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<String, TokenBucket>();
+
+	// True once any limit is set; until then throttle() returns at once.
+	private volatile boolean limited;
+
+	BandwidthManager(Properties config) {
+		this.config = config;
+		globalRate = getLong("BANDWIDTH.GLOBAL", 0L);
+		hostRate = getLong("BANDWIDTH.PER.HOST", 0L);
+		downloadRate = getLong("BANDWIDTH.PER.DOWNLOAD", 0L);
+
+		readWeights();
+		for (int i = 0; i < classBuckets.length; i++)
+			classBuckets[i] = new TokenBucket(0L);
+
+		limited = globalRate > 0 || hostRate > 0 || downloadRate > 0 || hasHostOverrides();
+		rebalance();
+	}
+
+	public static synchronized BandwidthManager getInstance() {
+		if (instance == null)
+			instance = new BandwidthManager(SimpleDownload.loadConfig());
+		return instance;
+	}
+
+	// Get the default limit for a new download.
+	public long getDownloadRate() {
+		return downloadRate;
+	}
+
+	public long getGlobalRate() {
+		return globalRate;
+	}
+
+	public synchronized void setGlobalRate(long rate) {
+		globalRate = Math.max(0L, rate);
+		if (globalRate > 0)
+			limited = true;
+		rebalance();
+	}
+
+	public long getHostRate(String host) {
+		return hostBucket(host).getRate();
+	}
+
+	public void setHostRate(String host, long rate) {
+		if (rate > 0)
+			limited = true;
+		hostBucket(host).setRate(rate);
+	}
+
+	// Called by a download whose own limit was set at runtime.
+	void downloadLimited() {
+		limited = true;
+	}
+
+	// Called by the scheduler when a download starts and finishes running.
+	synchronized void started(SimpleDownload download) {
+		int priority = download.getPriority();
+		countedClass.put(download, priority);
+		activePerClass[priority]++;
+		rebalance();
+	}
+
+	synchronized void finished(SimpleDownload download) {
+		Integer priority = countedClass.remove(download);
+		if (priority == null)
+			return;
+		activePerClass[priority]--;
+		rebalance();
+	}
+
+	// Wait until every limit that applies allows another chunk of bytes.
+	public void throttle(SimpleDownload download, int bytes) {
+		if (!limited)
+			return;
+
+		download.getRateLimit().acquire(bytes);
+		hostBucket(hostOf(download)).acquire(bytes);
+		classBuckets[download.getPriority()].acquire(bytes);
+	}
+
+	// Split the global rate between the classes with running downloads.
+	private void rebalance() {
+		int totalWeight = 0;
+		for (int i = 0; i < activePerClass.length; i++) {
+			if (activePerClass[i] > 0)
+				totalWeight += weights[i];
+		}
+		for (int i = 0; i < classBuckets.length; i++) {
+			if (globalRate <= 0) {
+				classBuckets[i].setRate(0L);
+			} else {
+				// A class with nothing running gets its share in full for its first chunk.
+				int weight = (activePerClass[i] > 0) ? totalWeight : totalWeight + weights[i];
+				classBuckets[i].setRate(globalRate * weights[i] / weight);
+			}
+		}
+	}
+
+	private TokenBucket hostBucket(String host) {
+		TokenBucket bucket = hostBuckets.get(host);
+		if (bucket == null) {
+			hostBuckets.putIfAbsent(host, new TokenBucket(getLong("BANDWIDTH.HOST." + host, hostRate)));
+			bucket = hostBuckets.get(host);
+		}
+		return bucket;
+	}
+
+	private boolean hasHostOverrides() {
+		for (String key : config.stringPropertyNames()) {
+			if (key.startsWith("BANDWIDTH.HOST."))
+				return true;
+		}
+		return false;
+	}
+
+	private static String hostOf(SimpleDownload download) {
+		String host = download.uri.getHost();
+		return (host == null) ? "" : host.toLowerCase();
+	}
+
+	// Read BANDWIDTH.WEIGHTS, keeping the default shares if any of them is not a number.
+	private void readWeights() {
+		String value = config.getProperty("BANDWIDTH.WEIGHTS");
+		if (value == null)
+			return;
+		String[] shares = value.split(",");
+		int[] parsed = new int[Math.min(shares.length, weights.length)];
+		try {
+			for (int i = 0; i < parsed.length; i++)
+				parsed[i] = Math.max(1, Integer.parseInt(shares[i].trim()));
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for BANDWIDTH.WEIGHTS: " + value);
+			return;
+		}
+		System.arraycopy(parsed, 0, weights, 0, parsed.length);
+	}
+
+	private long getLong(String key, long defaultValue) {
+		String value = config.getProperty(key);
+		try {
+			return (value == null) ? defaultValue : Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+}
@@ -0,0 +1,190 @@
+package com.suriya.tool;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PropertyConfigurator;
+
+/*
+ * Command line entry point that runs a list of downloads without any user
+ * interface and reports the results. Nothing here touches AWT or Swing, so it
+ * runs on headless hosts.
+ *
+ * Usage: BatchDownloader [--max-active N] [--per-host N] [--manifests DIR] [--repair] <url | list file | ->...
+ *
+ * A list file has one URL per line, optionally followed by a priority (high,
+ * normal or low). A URL ending in a slash mirrors that directory tree, queuing
+ * only new or changed files. Blank lines and lines starting with # are
+ * ignored, and - reads the list from standard input.
+ *
+ * --manifests names a directory of expected manifests laid out like the
+ * remote paths, such as pub/file.iso.manifest, that downloads are checked
+ * against. --repair checks existing local copies against their manifest and
+ * fetches again only the ranges that differ.
+ */
+public class BatchDownloader {
+
+	final static Logger log = Logger.getLogger(BatchDownloader.class);
+
+	// Time between two progress lines.
+	public static final long REPORT_INTERVAL_MILLIS = 5000;
+
+	private final List<SimpleDownload> downloads = new ArrayList<SimpleDownload>();
+	private int invalid = 0;
+
+	// Queue one entry of a list: a URL, or a directory to mirror, and an optional priority.
+	void add(String line) {
+		String[] fields = line.trim().split("\\s+");
+		URI verifiedUri = DownloadEngine.verifyUri(fields[0]);
+		if (verifiedUri == null) {
+			System.err.println("Invalid Download URL:" + fields[0]);
+			invalid++;
+			return;
+		}
+
+		// The priority is set before the downloads are queued, not after.
+		int priority = (fields.length > 1) ? parsePriority(fields[1]) : SimpleDownload.PRIORITY_NORMAL;
+		List<SimpleDownload> queued;
+		try {
+			queued = DownloadEngine.newDownloads(verifiedUri, priority);
+		} catch (IOException e) {
+			System.err.println("Not able to list " + fields[0] + ": " + e.getMessage());
+			invalid++;
+			return;
+		}
+		downloads.addAll(queued);
+	}
+
+	// Queue every entry of a list file, or of standard input for "-".
+	void addList(String fileName) throws IOException {
+		InputStream input = fileName.equals("-") ? System.in : new FileInputStream(fileName);
+		BufferedReader reader = new BufferedReader(new InputStreamReader(input, "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0 && !line.startsWith("#"))
+					add(line);
+			}
+		} finally {
+			if (input != System.in)
+				reader.close();
+		}
+	}
+
+	// Wait for every download to finish, printing progress along the way.
+	void await() throws InterruptedException {
+		long started = System.currentTimeMillis();
+		long lastReport = started;
+		while (true) {
+			int finished = 0;
+			long bytes = 0L;
+			for (SimpleDownload download : downloads) {
+				if (isFinished(download))
+					finished++;
+				bytes += download.downloaded;
+			}
+			if (finished == downloads.size())
+				return;
+
+			long now = System.currentTimeMillis();
+			if (now - lastReport >= REPORT_INTERVAL_MILLIS) {
+				DownloadScheduler scheduler = DownloadScheduler.getInstance();
+				System.out.println("Finished " + finished + "/" + downloads.size() + ", active "
+						+ scheduler.getActiveCount() + ", queued " + scheduler.getQueuedCount() + ", "
+						+ FileUtils.byteCountToDisplaySize(bytes) + " at " + rate(bytes, now - started));
+				lastReport = now;
+			}
+			Thread.sleep(200);
+		}
+	}
+
+	// Print one line per download and the totals. Returns the number of failures.
+	int report(long elapsed) {
+		int failed = invalid;
+		long bytes = 0L;
+		for (SimpleDownload download : downloads) {
+			long took = download.getElapsedTime();
+			System.out.println(SimpleDownload.STATUSES[download.getStatus()] + "\t"
+					+ FileUtils.byteCountToDisplaySize(download.downloaded) + "\t" + took + " ms\t"
+					+ rate(download.downloaded, took) + "\t" + download.getUrl());
+			if (download.getStatus() != SimpleDownload.COMPLETE)
+				failed++;
+			bytes += download.downloaded;
+		}
+		System.out.println("Downloaded " + (downloads.size() + invalid - failed) + " of " + (downloads.size() + invalid)
+				+ " files, " + FileUtils.byteCountToDisplaySize(bytes) + " in " + elapsed + " ms at "
+				+ rate(bytes, elapsed));
+		return failed;
+	}
+
+	private static boolean isFinished(SimpleDownload download) {
+		int status = download.getStatus();
+		return status == SimpleDownload.COMPLETE || status == SimpleDownload.CANCELLED
+				|| status == SimpleDownload.ERROR;
+	}
+
+	private static String rate(long bytes, long millis) {
+		if (millis <= 0)
+			return "- MB/s";
+		return String.format("%.2f MB/s", bytes / 1048576.0 / (millis / 1000.0));
+	}
+
+	private static int parsePriority(String priority) {
+		if (priority.equalsIgnoreCase("high"))
+			return SimpleDownload.PRIORITY_HIGH;
+		if (priority.equalsIgnoreCase("low"))
+			return SimpleDownload.PRIORITY_LOW;
+		return SimpleDownload.PRIORITY_NORMAL;
+	}
+
+	private static void usage() {
+		System.err.println("Usage: BatchDownloader [--max-active N] [--per-host N] [--manifests DIR] [--repair]"
+				+ " <url | list file | ->...");
+		System.exit(2);
+	}
+
+	// Run the downloads given on the command line.
+	public static void main(String[] args) throws Exception {
+		PropertyConfigurator.configure("log4j.properties");
+
+		List<String> sources = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--max-active") && i + 1 < args.length)
+				SimpleDownload.loadConfig().setProperty("SCHEDULER.MAX.ACTIVE", args[++i]);
+			else if (args[i].equals("--per-host") && i + 1 < args.length)
+				SimpleDownload.loadConfig().setProperty("SCHEDULER.MAX.PER.HOST", args[++i]);
+			else if (args[i].equals("--manifests") && i + 1 < args.length)
+				SimpleDownload.loadConfig().setProperty("MANIFEST.DIRECTORY", args[++i]);
+			else if (args[i].equals("--repair"))
+				SimpleDownload.loadConfig().setProperty("REPAIR", "true");
+			else if (args[i].startsWith("--"))
+				usage();
+			else
+				sources.add(args[i]);
+		}
+		if (sources.isEmpty())
+			usage();
+
+		BatchDownloader batch = new BatchDownloader();
+		long started = System.currentTimeMillis();
+		for (String source : sources) {
+			if (source.contains("://"))
+				batch.add(source);
+			else
+				batch.addList(source);
+		}
+		batch.await();
+
+		int failed = batch.report(System.currentTimeMillis() - started);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
@@ -0,0 +1,70 @@
+package com.suriya.tool;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/*
+ * This class keeps transfer buffers for reuse, so the copy loops do not
+ * allocate a new array for every read. Direct buffers, which are costly to
+ * allocate and only freed by the garbage collector, are kept the same way.
+ */
+class BufferPool {
+
+	// Most idle buffers kept for each size.
+	public static final int MAX_IDLE_BUFFERS = 64;
+
+	private static final ConcurrentMap<Integer, Queue<byte[]>> pools = new ConcurrentHashMap<Integer, Queue<byte[]>>();
+	private static final ConcurrentMap<Integer, Queue<ByteBuffer>> directPools = new ConcurrentHashMap<Integer, Queue<ByteBuffer>>();
+
+	private BufferPool() {
+	}
+
+	// Get a buffer of exactly the given size.
+	public static byte[] acquire(int size) {
+		byte[] buffer = pool(size).poll();
+		return (buffer != null) ? buffer : new byte[size];
+	}
+
+	// Give a buffer back once the transfer using it is finished.
+	public static void release(byte[] buffer) {
+		Queue<byte[]> pool = pool(buffer.length);
+		if (pool.size() < MAX_IDLE_BUFFERS)
+			pool.offer(buffer);
+	}
+
+	// Get a cleared direct buffer of exactly the given capacity.
+	public static ByteBuffer acquireDirect(int size) {
+		ByteBuffer buffer = directPool(size).poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(size);
+		buffer.clear();
+		return buffer;
+	}
+
+	public static void releaseDirect(ByteBuffer buffer) {
+		Queue<ByteBuffer> pool = directPool(buffer.capacity());
+		if (pool.size() < MAX_IDLE_BUFFERS)
+			pool.offer(buffer);
+	}
+
+	private static Queue<byte[]> pool(int size) {
+		Queue<byte[]> pool = pools.get(size);
+		if (pool == null) {
+			pools.putIfAbsent(size, new ConcurrentLinkedQueue<byte[]>());
+			pool = pools.get(size);
+		}
+		return pool;
+	}
+
+	private static Queue<ByteBuffer> directPool(int size) {
+		Queue<ByteBuffer> pool = directPools.get(size);
+		if (pool == null) {
+			directPools.putIfAbsent(size, new ConcurrentLinkedQueue<ByteBuffer>());
+			pool = directPools.get(size);
+		}
+		return pool;
+	}
+}
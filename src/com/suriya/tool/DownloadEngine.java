@@ -0,0 +1,116 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.commons.validator.routines.UrlValidator;
+import org.apache.log4j.Logger;
+
+/*
+ * Entry points to the download engine that do not depend on any user
+ * interface: checking URLs and creating the download for their protocol.
+ */
+final class DownloadEngine {
+
+	final static Logger log = Logger.getLogger(DownloadEngine.class);
+
+	// These are the supported URL schemes.
+	public static final String SCHEMES[] = { "http", "ftp", "sftp" };
+
+	private DownloadEngine() {
+	}
+
+	// Verify download URI, returning null if it is not valid.
+	public static URI verifyUri(String uri) {
+		URI verifiedUri = null;
+
+		UrlValidator urlValidator = new UrlValidator(SCHEMES, UrlValidator.ALLOW_LOCAL_URLS);
+		if (!urlValidator.isValid(uri)) {
+			log.info("uri: " + uri + ", isvalid: " + urlValidator.isValid(uri));
+			return null;
+		}
+
+		try {
+			verifiedUri = new URI(uri);
+		} catch (URISyntaxException e) {
+			log.error("Error when validating uri: " + e.getMessage());
+			return null;
+		}
+
+		return verifiedUri;
+	}
+
+	// Create and queue the download for a verified URI.
+	public static SimpleDownload newDownload(URI verifiedUri) {
+		return newDownload(verifiedUri, null, null);
+	}
+
+	/*
+	 * Create and queue a download found by listing a directory, stored in the
+	 * given directory below the host's download path.
+	 */
+	public static SimpleDownload newDownload(URI verifiedUri, String localDirectory, RemoteMetadata listed) {
+		return newDownload(verifiedUri, localDirectory, listed, SimpleDownload.PRIORITY_NORMAL);
+	}
+
+	// Create a download as above, queued in the given priority class.
+	public static SimpleDownload newDownload(URI verifiedUri, String localDirectory, RemoteMetadata listed,
+			int priority) {
+		String protocol = verifiedUri.toString().substring(0, verifiedUri.toString().indexOf("://"));
+		SimpleDownload download;
+		if (protocol.equals("http"))
+			download = new HTTPDownload(verifiedUri, localDirectory, listed, priority);
+		else if (protocol.equals("ftp"))
+			download = new FTPDownload(verifiedUri, localDirectory, listed, priority);
+		else
+			download = new SFTPDownload(verifiedUri, localDirectory, listed, priority);
+		// Queued only once fully constructed, as a pool thread may start it at once.
+		download.download();
+		return download;
+	}
+
+	/*
+	 * Create and queue the downloads for a verified URI: one for a file, or
+	 * one for each new or changed file if it names a directory to mirror.
+	 */
+	public static List<SimpleDownload> newDownloads(URI verifiedUri) throws IOException {
+		return newDownloads(verifiedUri, SimpleDownload.PRIORITY_NORMAL);
+	}
+
+	// Create and queue the downloads for a verified URI in the given priority class.
+	public static List<SimpleDownload> newDownloads(URI verifiedUri, int priority) throws IOException {
+		if (MirrorJob.isDirectory(verifiedUri))
+			return new MirrorJob(verifiedUri, priority).run();
+		return Collections.singletonList(newDownload(verifiedUri, null, null, priority));
+	}
+
+	/*
+	 * Queue again every download that left a journal behind, such as those
+	 * still running when the program stopped. Each resumes from its journal.
+	 * Downloads that log in are left until their URL is added again, as the
+	 * journal does not keep the credentials.
+	 */
+	public static List<SimpleDownload> restoreDownloads() {
+		List<SimpleDownload> restored = new ArrayList<SimpleDownload>();
+		for (DownloadJournal journal : DownloadJournal.loadAll()) {
+			if (journal.needsLogin()) {
+				log.info("Not restoring " + journal.getUrl() + " without its credentials, add it again to resume");
+				continue;
+			}
+			URI uri;
+			try {
+				uri = new URI(journal.getUrl());
+			} catch (URISyntaxException e) {
+				log.error("Not able to restore " + journal.getUrl() + ": " + e.getMessage());
+				continue;
+			}
+			log.info("Restoring the download of " + journal.getTarget());
+			restored.add(newDownload(uri, journal.getLocalDirectory(), null));
+		}
+		return restored;
+	}
+}
@@ -0,0 +1,247 @@
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class keeps a record of the files downloaded into one directory, stored
+ * as a properties file next to them. Changes are saved together once the save
+ * delay has passed, so a directory of many small files is not rewritten for
+ * each one. Only the valid length of a preallocated file is saved at once, as
+ * it must be on disk before the file grows. A running download holds the index
+ * of its directory, and indexes no download holds are saved and dropped from
+ * memory.
+ *
+ * Settings in config.properties:
+ *   INDEX.SAVE.DELAY   milliseconds changes wait to be saved, 0 to save each one (default 1000)
+ */
+class DownloadIndex {
+
+	final static Logger log = Logger.getLogger(DownloadIndex.class);
+
+	public static final String INDEX_FILE_NAME = ".download-index.properties";
+
+	// One index per directory, shared by all downloads writing there.
+	private static final Map<File, DownloadIndex> indexes = new HashMap<File, DownloadIndex>();
+
+	// Saves changed indexes once the save delay has passed, created on first use.
+	private static ScheduledExecutorService saver = null;
+	private static final Object saverLock = new Object(); // not the class, which release() holds while saving
+
+	private final File indexFile;
+	private final Properties records = new Properties();
+	private int holders = 0; // downloads and listings using the directory, guarded by the class
+	private boolean dirty = false;
+	private boolean saveScheduled = false;
+
+	private DownloadIndex(File directory) {
+		this.indexFile = new File(directory, INDEX_FILE_NAME);
+		load();
+	}
+
+	public static synchronized DownloadIndex forDirectory(File directory) {
+		File key = directory.getAbsoluteFile();
+		DownloadIndex index = indexes.get(key);
+		if (index == null) {
+			index = new DownloadIndex(key);
+			indexes.put(key, index);
+		}
+		return index;
+	}
+
+	// Hold the index of a directory while a download or listing uses it.
+	public static synchronized DownloadIndex acquire(File directory) {
+		DownloadIndex index = forDirectory(directory);
+		index.holders++;
+		return index;
+	}
+
+	/*
+	 * Let go of an index held by a download or a mirror listing. Once nobody
+	 * holds it, it and any other index nobody holds are saved and dropped.
+	 */
+	public static synchronized void release(DownloadIndex index) {
+		if (--index.holders > 0)
+			return;
+		for (Iterator<DownloadIndex> it = indexes.values().iterator(); it.hasNext();) {
+			DownloadIndex idle = it.next();
+			if (idle.holders <= 0) {
+				idle.flush();
+				it.remove();
+			}
+		}
+	}
+
+	// Save every index with changes, when the program exits.
+	private static void flushAll() {
+		List<DownloadIndex> all;
+		synchronized (DownloadIndex.class) {
+			all = new ArrayList<DownloadIndex>(indexes.values());
+		}
+		for (DownloadIndex index : all)
+			index.flush();
+	}
+
+	private static ScheduledExecutorService getSaver() {
+		synchronized (saverLock) {
+			if (saver != null)
+				return saver;
+			saver = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "download-index-saver");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+			Runtime.getRuntime().addShutdownHook(new Thread("download-index-flush") {
+				public void run() {
+					flushAll();
+				}
+			});
+			return saver;
+		}
+	}
+
+	// Get the metadata recorded for a file, or null if it was never downloaded.
+	public synchronized RemoteMetadata get(String fileName) {
+		String size = records.getProperty(fileName + ".size");
+		if (size == null)
+			return null;
+
+		RemoteMetadata metadata = new RemoteMetadata(Long.parseLong(size),
+				Long.parseLong(records.getProperty(fileName + ".lastModified", "0")));
+		metadata.setEtag(records.getProperty(fileName + ".etag"));
+		metadata.setMd5(records.getProperty(fileName + ".md5"));
+		return metadata;
+	}
+
+	// Get the hex digest of the local copy recorded when it was downloaded.
+	public synchronized String getDigest(String fileName) {
+		return records.getProperty(fileName + ".digest");
+	}
+
+	/*
+	 * Get how many leading bytes of a preallocated file are valid, or null if
+	 * the file's length can be trusted.
+	 */
+	public synchronized Long getPartial(String fileName) {
+		String partial = records.getProperty(fileName + ".partial");
+		return (partial == null) ? null : Long.valueOf(partial);
+	}
+
+	public synchronized void putPartial(String fileName, long length) {
+		records.setProperty(fileName + ".partial", Long.toString(length));
+		dirty = true;
+		flush();
+	}
+
+	public synchronized void removePartial(String fileName) {
+		if (records.remove(fileName + ".partial") != null)
+			changed();
+	}
+
+	public synchronized void put(String fileName, RemoteMetadata metadata, String digest) {
+		records.remove(fileName + ".partial");
+		records.setProperty(fileName + ".size", Long.toString(metadata.getSize()));
+		records.setProperty(fileName + ".lastModified", Long.toString(metadata.getLastModified()));
+		setOrRemove(fileName + ".etag", metadata.getEtag());
+		setOrRemove(fileName + ".md5", metadata.getMd5());
+		setOrRemove(fileName + ".digest", digest);
+		changed();
+	}
+
+	// Save the changes now, if there are any.
+	public synchronized void flush() {
+		if (dirty) {
+			dirty = false;
+			save();
+		}
+	}
+
+	// Save the changes once the save delay has passed, with any that follow.
+	private void changed() {
+		dirty = true;
+		long delay = Long.parseLong(SimpleDownload.loadConfig().getProperty("INDEX.SAVE.DELAY", "1000").trim());
+		if (delay <= 0) {
+			flush();
+		} else if (!saveScheduled) {
+			saveScheduled = true;
+			getSaver().schedule(new Runnable() {
+				public void run() {
+					synchronized (DownloadIndex.this) {
+						saveScheduled = false;
+						flush();
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void setOrRemove(String key, String value) {
+		if (value == null)
+			records.remove(key);
+		else
+			records.setProperty(key, value);
+	}
+
+	private void load() {
+		if (!indexFile.exists())
+			return;
+
+		InputStream input = null;
+		try {
+			input = new FileInputStream(indexFile);
+			records.load(input);
+		} catch (IOException e) {
+			log.error("Error when reading the download index " + indexFile + ": " + e.getMessage());
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	// Write to a temporary file first so a crash never leaves a truncated index.
+	private void save() {
+		File tempFile = new File(indexFile.getParentFile(), INDEX_FILE_NAME + ".tmp");
+		OutputStream output = null;
+		try {
+			output = new FileOutputStream(tempFile);
+			records.store(output, "Downloaded files");
+			output.close();
+			output = null;
+			Files.move(tempFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			log.error("Error when writing the download index " + indexFile + ": " + e.getMessage());
+		} finally {
+			if (output != null) {
+				try {
+					output.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+}
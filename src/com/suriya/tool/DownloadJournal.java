@@ -0,0 +1,465 @@
+package com.suriya.tool;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.log4j.Logger;
+
+/*
+ * This class keeps the resume state of one download on disk: its URL, the
+ * remote file's validators and a bitmap of the chunks already written. A
+ * chunk's bit is set in memory as soon as its last byte is written, and the
+ * bitmap is written out only when syncing, after the data has been forced to
+ * disk. So after a crash the journal never claims more than what reached the
+ * disk. Syncs run on a background thread every sync interval, and the data is
+ * forced without holding the journal, so transfers never wait on the disk.
+ *
+ * Journals live in the .journal directory under BASE.DOWNLOAD.PATH, named
+ * after the target file, so downloads can be restored on restart. The URL is
+ * kept without its credentials, so only downloads that need no login are
+ * restored on restart; the others resume from their journal when the URL is
+ * added again, logging in with the credentials it was added with. A journal
+ * is deleted when its download completes or is cancelled.
+ *
+ * Layout: magic, version, URL, whether a login is needed, local directory,
+ * target path, size, last-modified, ETag, chunk size, chunk count, then the
+ * bitmap.
+ *
+ * Settings in config.properties:
+ *   JOURNAL.CHUNK.SIZE      bytes covered by one bit (default 1048576)
+ *   JOURNAL.SYNC.INTERVAL   milliseconds between syncs, 0 for every chunk, -1 to leave it to the OS (default 1000)
+ */
+class DownloadJournal {
+
+	final static Logger log = Logger.getLogger(DownloadJournal.class);
+
+	public static final String JOURNAL_DIRECTORY_NAME = ".journal";
+	public static final String JOURNAL_SUFFIX = ".journal";
+
+	private static final int MAGIC = 0x444d4a31; // "DMJ1"
+	private static final int VERSION = 1;
+
+	private final File journalFile;
+	private final String url;
+	private final boolean login;
+	private final String localDirectory;
+	private final File target;
+	private final long size;
+	private final long lastModified;
+	private final String etag;
+	private final int chunkSize;
+	private final int chunkCount;
+	private final byte[] bitmap;
+	private final int[] filled; // bytes written in each unfinished chunk during this run
+	private long bitmapOffset;
+
+	private RandomAccessFile journal;
+	private FileChannel data;
+	private long syncInterval;
+	private boolean dirty = false;
+	private ScheduledFuture<?> syncTask;
+	private final Object syncLock = new Object(); // one sync at a time, taken before the journal's own lock
+
+	// Runs the periodic syncs of all open journals, created on first use.
+	private static ScheduledExecutorService syncer = null;
+
+	private DownloadJournal(File journalFile, String url, boolean login, String localDirectory, File target, long size,
+			long lastModified, String etag, int chunkSize) {
+		this.journalFile = journalFile;
+		this.url = url;
+		this.login = login;
+		this.localDirectory = localDirectory;
+		this.target = target;
+		this.size = size;
+		this.lastModified = lastModified;
+		this.etag = etag;
+		this.chunkSize = chunkSize;
+		this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+		this.bitmap = new byte[(chunkCount + 7) / 8];
+		this.filled = new int[chunkCount];
+	}
+
+	// Get the directory holding the journals of all downloads.
+	public static File getJournalDirectory() {
+		String downloadPath = SimpleDownload.loadConfig().getProperty("BASE.DOWNLOAD.PATH", System.getProperty("user.dir"));
+		return new File(downloadPath, JOURNAL_DIRECTORY_NAME);
+	}
+
+	// Get the journal file of a target file.
+	public static File fileFor(File target) {
+		return new File(getJournalDirectory(), DigestUtils.sha1Hex(target.getAbsolutePath()) + JOURNAL_SUFFIX);
+	}
+
+	/*
+	 * Start a new journal for a target file, replacing any earlier one. The
+	 * URL must not hold credentials; login tells whether the download needs them.
+	 */
+	public static DownloadJournal create(File target, String url, boolean login, String localDirectory,
+			RemoteMetadata remote) throws IOException {
+		int chunkSize = Integer.parseInt(SimpleDownload.loadConfig().getProperty("JOURNAL.CHUNK.SIZE", "1048576").trim());
+		DownloadJournal created = new DownloadJournal(fileFor(target), url, login, localDirectory, target,
+				remote.getSize(), remote.getLastModified(), remote.getEtag(), chunkSize);
+		created.write();
+		return created;
+	}
+
+	// Read a journal file, or return null if there is none or it is damaged.
+	public static DownloadJournal load(File journalFile) {
+		if (!journalFile.isFile())
+			return null;
+
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new FileInputStream(journalFile));
+			if (input.readInt() != MAGIC || input.readInt() != VERSION)
+				throw new IOException("Not a download journal");
+			String url = input.readUTF();
+			boolean login = input.readBoolean();
+			String localDirectory = input.readUTF();
+			File target = new File(input.readUTF());
+			long size = input.readLong();
+			long lastModified = input.readLong();
+			String etag = input.readUTF();
+			int chunkSize = input.readInt();
+			DownloadJournal loaded = new DownloadJournal(journalFile, url, login,
+					localDirectory.length() == 0 ? null : localDirectory, target, size, lastModified,
+					etag.length() == 0 ? null : etag, chunkSize);
+			if (input.readInt() != loaded.chunkCount)
+				throw new IOException("Chunk count does not match the size");
+			input.readFully(loaded.bitmap);
+			loaded.bitmapOffset = journalFile.length() - loaded.bitmap.length;
+			return loaded;
+		} catch (IOException e) {
+			log.error("Ignoring the damaged download journal " + journalFile + ": " + e.getMessage());
+			return null;
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+			}
+		}
+	}
+
+	// Read every journal left behind, for downloads that did not finish.
+	public static List<DownloadJournal> loadAll() {
+		List<DownloadJournal> journals = new ArrayList<DownloadJournal>();
+		File[] files = getJournalDirectory().listFiles();
+		if (files == null)
+			return journals;
+		for (File file : files) {
+			if (!file.getName().endsWith(JOURNAL_SUFFIX))
+				continue;
+			DownloadJournal loaded = load(file);
+			if (loaded != null)
+				journals.add(loaded);
+		}
+		return journals;
+	}
+
+	// Delete the journal of a target file, if there is one.
+	public static void delete(File target) {
+		File journalFile = fileFor(target);
+		if (journalFile.exists() && !journalFile.delete())
+			log.error("Not able to delete the download journal " + journalFile);
+	}
+
+	/*
+	 * Whether this journal describes the same remote file: same URL and size,
+	 * and no validator that differs.
+	 */
+	public boolean matches(String url, RemoteMetadata remote) {
+		if (!this.url.equals(url) || size != remote.getSize())
+			return false;
+		if (etag != null && remote.getEtag() != null && !etag.equals(remote.getEtag()))
+			return false;
+		return lastModified <= 0 || remote.getLastModified() <= 0 || lastModified == remote.getLastModified();
+	}
+
+	// Open the journal and the target file for recording writes.
+	public void open() throws IOException {
+		synchronized (this) {
+			journal = new RandomAccessFile(journalFile, "rw");
+			data = new RandomAccessFile(target, "rw").getChannel();
+			syncInterval = Long.parseLong(SimpleDownload.loadConfig().getProperty("JOURNAL.SYNC.INTERVAL", "1000").trim());
+			if (syncInterval < 0) {
+				writeBitmap();
+				return;
+			}
+		}
+		// Chunks marked before opening are recorded now, after their data.
+		sync();
+		if (syncInterval > 0) {
+			ScheduledFuture<?> task = getSyncer().scheduleWithFixedDelay(new Runnable() {
+				public void run() {
+					try {
+						sync();
+					} catch (IOException e) {
+						log.error("Not able to sync the download journal " + journalFile + ": " + e.getMessage());
+					}
+				}
+			}, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+			synchronized (this) {
+				syncTask = task;
+			}
+		}
+	}
+
+	private static synchronized ScheduledExecutorService getSyncer() {
+		if (syncer == null) {
+			syncer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread thread = new Thread(runnable, "journal-sync");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return syncer;
+	}
+
+	/*
+	 * Record that length bytes were written at position. A chunk's bit is set
+	 * once all of its bytes were written during this run. Only with a sync
+	 * interval of 0 does the caller sync, once per finished chunk.
+	 */
+	public void written(long position, long length) throws IOException {
+		if (record(position, length))
+			sync();
+	}
+
+	// Set the bits of the chunks the write finished. Returns whether to sync now.
+	private synchronized boolean record(long position, long length) throws IOException {
+		boolean completed = false;
+		long end = position + length;
+		while (position < end) {
+			int chunk = (int) (position / chunkSize);
+			long chunkEnd = Math.min((long) (chunk + 1) * chunkSize, size);
+			int count = (int) (Math.min(end, chunkEnd) - position);
+			if (!isComplete(chunk)) {
+				filled[chunk] += count;
+				if (filled[chunk] >= chunkEnd - (long) chunk * chunkSize) {
+					complete(chunk);
+					completed = true;
+				}
+			}
+			position += count;
+		}
+		return completed && journal != null && syncInterval == 0;
+	}
+
+	private void complete(int chunk) throws IOException {
+		bitmap[chunk / 8] |= (byte) (1 << (chunk % 8));
+		dirty = true;
+		if (journal != null && syncInterval < 0) {
+			// Left to the OS, so there is no order to keep.
+			journal.seek(bitmapOffset + chunk / 8);
+			journal.write(bitmap[chunk / 8]);
+		}
+	}
+
+	/*
+	 * Clear the chunks overlapping a byte range found to be wrong, so that
+	 * resuming fetches them again.
+	 */
+	public synchronized void invalidate(long position, long length) throws IOException {
+		if (length <= 0)
+			return;
+		int last = (int) Math.min((position + length - 1) / chunkSize, chunkCount - 1);
+		for (int chunk = (int) (position / chunkSize); chunk <= last; chunk++) {
+			bitmap[chunk / 8] &= (byte) ~(1 << (chunk % 8));
+			filled[chunk] = 0;
+			if (journal != null) {
+				journal.seek(bitmapOffset + chunk / 8);
+				journal.write(bitmap[chunk / 8]);
+			}
+		}
+		if (journal != null)
+			journal.getFD().sync();
+	}
+
+	/*
+	 * Force the data first, so the bitmap never gets ahead of what is on disk.
+	 * Only the bits set before forcing are written, and the journal is not
+	 * held while forcing, so transfers keep recording writes meanwhile.
+	 */
+	public void sync() throws IOException {
+		synchronized (syncLock) {
+			FileChannel channel;
+			byte[] recorded;
+			synchronized (this) {
+				if (!dirty || journal == null)
+					return;
+				channel = data;
+				recorded = bitmap.clone();
+				dirty = false;
+			}
+			try {
+				channel.force(false);
+				synchronized (this) {
+					// Chunks invalidated while forcing stay cleared.
+					for (int i = 0; i < recorded.length; i++)
+						recorded[i] &= bitmap[i];
+					journal.seek(bitmapOffset);
+					journal.write(recorded);
+					journal.getFD().sync();
+				}
+			} catch (IOException e) {
+				synchronized (this) {
+					dirty = true;
+				}
+				throw e;
+			}
+		}
+	}
+
+	// Sync and close the files, keeping the journal for a later resume.
+	public void close() {
+		ScheduledFuture<?> task;
+		synchronized (this) {
+			task = syncTask;
+			syncTask = null;
+		}
+		if (task != null)
+			task.cancel(false);
+		try {
+			if (syncInterval >= 0)
+				sync();
+		} catch (IOException e) {
+			log.error("Not able to sync the download journal " + journalFile + ": " + e.getMessage());
+		}
+		// Wait for a sync still running on the background thread.
+		synchronized (syncLock) {
+			synchronized (this) {
+				try {
+					if (journal != null)
+						journal.close();
+					if (data != null)
+						data.close();
+				} catch (IOException e) {
+				}
+				journal = null;
+				data = null;
+			}
+		}
+	}
+
+	// Close and delete the journal once its download completes or is cancelled.
+	public void discard() {
+		close();
+		if (!journalFile.delete())
+			log.error("Not able to delete the download journal " + journalFile);
+	}
+
+	public synchronized boolean isComplete(int chunk) {
+		return (bitmap[chunk / 8] & (1 << (chunk % 8))) != 0;
+	}
+
+	// Get the number of bytes at the start of the file covered by finished chunks.
+	public synchronized long getContiguousBytes() {
+		int chunk = 0;
+		while (chunk < chunkCount && isComplete(chunk))
+			chunk++;
+		return Math.min((long) chunk * chunkSize, size);
+	}
+
+	// Get the number of bytes covered by finished chunks.
+	public synchronized long getCompletedBytes() {
+		long completed = 0L;
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			if (isComplete(chunk))
+				completed += Math.min((long) (chunk + 1) * chunkSize, size) - (long) chunk * chunkSize;
+		}
+		return completed;
+	}
+
+	// Whether finished chunks follow a missing one, so a single stream would fetch them again.
+	public synchronized boolean hasHoles() {
+		return getCompletedBytes() > getContiguousBytes();
+	}
+
+	// Get a segment for each run of missing chunks.
+	public synchronized List<Segment> getMissingSegments() {
+		List<Segment> missing = new ArrayList<Segment>();
+		int chunk = 0;
+		while (chunk < chunkCount) {
+			if (isComplete(chunk)) {
+				chunk++;
+				continue;
+			}
+			int first = chunk;
+			while (chunk < chunkCount && !isComplete(chunk))
+				chunk++;
+			missing.add(new Segment(missing.size(), (long) first * chunkSize,
+					Math.min((long) chunk * chunkSize, size) - 1));
+		}
+		return missing;
+	}
+
+	public String getUrl() {
+		return url;
+	}
+
+	// Whether the download logs in, so it can only resume once added again with its credentials.
+	public boolean needsLogin() {
+		return login;
+	}
+
+	public String getLocalDirectory() {
+		return localDirectory;
+	}
+
+	public File getTarget() {
+		return target;
+	}
+
+	private void writeBitmap() throws IOException {
+		journal.seek(bitmapOffset);
+		journal.write(bitmap);
+	}
+
+	private void write() throws IOException {
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream output = new DataOutputStream(header);
+		output.writeInt(MAGIC);
+		output.writeInt(VERSION);
+		output.writeUTF(url);
+		output.writeBoolean(login);
+		output.writeUTF(localDirectory == null ? "" : localDirectory);
+		output.writeUTF(target.getAbsolutePath());
+		output.writeLong(size);
+		output.writeLong(lastModified);
+		output.writeUTF(etag == null ? "" : etag);
+		output.writeInt(chunkSize);
+		output.writeInt(chunkCount);
+		output.flush();
+		bitmapOffset = header.size();
+		output.write(bitmap);
+		output.flush();
+
+		journalFile.getParentFile().mkdirs();
+		RandomAccessFile file = new RandomAccessFile(journalFile, "rw");
+		try {
+			file.setLength(0);
+			file.write(header.toByteArray());
+			file.getFD().sync();
+		} finally {
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,272 @@
+package com.suriya.tool;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class owns the execution of downloads. Submitted downloads wait as
+ * small queue entries until a slot is free under the global, per-host and
+ * per-protocol limits, and are started in priority order. A download resumed
+ * while its last run is still winding down is queued once that run has ended.
+ *
+ * Settings in config.properties:
+ *   SCHEDULER.MAX.ACTIVE        downloads running at once (default 8)
+ *   SCHEDULER.MAX.PER.HOST      downloads running against one host (default 4)
+ *   <PROTOCOL>.MAX.ACTIVE       downloads running for one protocol (0 = no limit)
+ *   SCHEDULER.FAIR              true to take turns between hosts, false for FIFO
+ *   SCHEDULER.VIRTUAL.THREADS   true to run transfers on virtual threads (Java 21+)
+ */
+class DownloadScheduler {
+
+	final static Logger log = Logger.getLogger(DownloadScheduler.class);
+
+	private static DownloadScheduler instance = null;
+
+	// A waiting download, in submission order.
+	private static class Entry {
+		final SimpleDownload download;
+		final long sequence;
+
+		Entry(SimpleDownload download, long sequence) {
+			this.download = download;
+			this.sequence = sequence;
+		}
+	}
+
+	private final int maxActive;
+	private final int maxPerHost;
+	private final Properties config;
+	private final boolean fair;
+	private final ExecutorService executor;
+
+	// One map per priority class, host to waiting downloads. Host order is the round-robin order.
+	private final List<Map<String, Deque<Entry>>> queues;
+	private long sequence = 0L;
+	private int queued = 0;
+
+	private int active = 0;
+	private final Map<String, Integer> activeByHost = new HashMap<String, Integer>();
+	private final Map<String, Integer> activeByProtocol = new HashMap<String, Integer>();
+
+	// Downloads with a run in progress, and those of them resumed before the run ended.
+	private final Set<SimpleDownload> running = new HashSet<SimpleDownload>();
+	private final Set<SimpleDownload> pendingResume = new HashSet<SimpleDownload>();
+
+	DownloadScheduler(Properties config) {
+		this.config = config;
+		this.maxActive = getInt(config, "SCHEDULER.MAX.ACTIVE", 8);
+		this.maxPerHost = getInt(config, "SCHEDULER.MAX.PER.HOST", 4);
+		this.fair = Boolean.parseBoolean(config.getProperty("SCHEDULER.FAIR", "true"));
+		this.executor = newExecutor(Boolean.parseBoolean(config.getProperty("SCHEDULER.VIRTUAL.THREADS", "false")));
+
+		queues = new ArrayList<Map<String, Deque<Entry>>>();
+		for (int i = 0; i <= SimpleDownload.PRIORITY_LOW; i++)
+			queues.add(new LinkedHashMap<String, Deque<Entry>>());
+	}
+
+	public static synchronized DownloadScheduler getInstance() {
+		if (instance == null)
+			instance = new DownloadScheduler(SimpleDownload.loadConfig());
+		return instance;
+	}
+
+	// Queue a download and start whatever fits in the free slots.
+	public synchronized void submit(SimpleDownload download) {
+		// The old run still writes to the file; queue the download when it stops.
+		if (running.contains(download)) {
+			pendingResume.add(download);
+			return;
+		}
+		Map<String, Deque<Entry>> hosts = queues.get(download.getPriority());
+		String host = hostOf(download);
+		Deque<Entry> queue = hosts.get(host);
+		if (queue == null) {
+			queue = new ArrayDeque<Entry>();
+			hosts.put(host, queue);
+		}
+		queue.add(new Entry(download, sequence++));
+		queued++;
+		dispatch();
+	}
+
+	// Drop a download that is still waiting. Returns false if it was not queued.
+	public synchronized boolean remove(SimpleDownload download) {
+		if (pendingResume.remove(download))
+			return true;
+		for (Map<String, Deque<Entry>> hosts : queues) {
+			Deque<Entry> queue = hosts.get(hostOf(download));
+			if (queue == null)
+				continue;
+			for (Iterator<Entry> it = queue.iterator(); it.hasNext();) {
+				if (it.next().download == download) {
+					it.remove();
+					queued--;
+					if (queue.isEmpty())
+						hosts.remove(hostOf(download));
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	// Move a waiting download to the queue of its new priority class.
+	public synchronized void reprioritize(SimpleDownload download) {
+		if (remove(download))
+			submit(download);
+	}
+
+	public synchronized int getActiveCount() {
+		return active;
+	}
+
+	public synchronized int getQueuedCount() {
+		return queued;
+	}
+
+	// Start queued downloads, highest priority first, while slots are free.
+	private void dispatch() {
+		while (active < maxActive) {
+			Entry entry = next();
+			if (entry == null)
+				return;
+			if (entry.download.getStatus() != SimpleDownload.QUEUED)
+				continue; // paused or cancelled while waiting
+
+			start(entry.download);
+		}
+	}
+
+	// Take the next startable entry, or null if none fits the limits.
+	private Entry next() {
+		for (Map<String, Deque<Entry>> hosts : queues) {
+			String chosen = null;
+			long oldest = Long.MAX_VALUE;
+			for (Map.Entry<String, Deque<Entry>> host : hosts.entrySet()) {
+				Entry head = host.getValue().peek();
+				if (!fits(host.getKey(), protocolOf(head.download)))
+					continue;
+				if (fair) {
+					chosen = host.getKey();
+					break;
+				}
+				if (head.sequence < oldest) {
+					oldest = head.sequence;
+					chosen = host.getKey();
+				}
+			}
+			if (chosen == null)
+				continue;
+
+			Deque<Entry> queue = hosts.remove(chosen);
+			Entry entry = queue.poll();
+			queued--;
+			// Re-inserting moves the host to the end of the round-robin order.
+			if (!queue.isEmpty())
+				hosts.put(chosen, queue);
+			return entry;
+		}
+		return null;
+	}
+
+	private boolean fits(String host, String protocol) {
+		if (count(activeByHost, host) >= maxPerHost)
+			return false;
+		int maxForProtocol = getInt(config, protocol.toUpperCase() + ".MAX.ACTIVE", 0);
+		return maxForProtocol <= 0 || count(activeByProtocol, protocol) < maxForProtocol;
+	}
+
+	private void start(final SimpleDownload download) {
+		final String host = hostOf(download);
+		final String protocol = protocolOf(download);
+		active++;
+		activeByHost.put(host, count(activeByHost, host) + 1);
+		activeByProtocol.put(protocol, count(activeByProtocol, protocol) + 1);
+		running.add(download);
+
+		download.status = SimpleDownload.DOWNLOADING;
+		download.stateChanged();
+		BandwidthManager.getInstance().started(download);
+		executor.execute(new Runnable() {
+			public void run() {
+				try {
+					download.started();
+					download.run();
+					// A run that returns without a final status has failed somewhere.
+					if (download.getStatus() == SimpleDownload.DOWNLOADING)
+						download.error();
+				} catch (RuntimeException e) {
+					log.error("Error when downloading " + download.getUrl() + ": " + e.getMessage(), e);
+					download.error();
+				} finally {
+					download.stopped();
+					BandwidthManager.getInstance().finished(download);
+					finished(download, host, protocol);
+				}
+			}
+		});
+	}
+
+	private synchronized void finished(SimpleDownload download, String host, String protocol) {
+		active--;
+		activeByHost.put(host, count(activeByHost, host) - 1);
+		activeByProtocol.put(protocol, count(activeByProtocol, protocol) - 1);
+		running.remove(download);
+		if (pendingResume.remove(download) && download.getStatus() == SimpleDownload.QUEUED)
+			submit(download);
+		else
+			dispatch();
+	}
+
+	private static int count(Map<String, Integer> counts, String key) {
+		Integer count = counts.get(key);
+		return (count == null) ? 0 : count;
+	}
+
+	private static String hostOf(SimpleDownload download) {
+		String host = download.uri.getHost();
+		return (host == null) ? "" : host.toLowerCase();
+	}
+
+	private static String protocolOf(SimpleDownload download) {
+		return download.uri.getScheme().toLowerCase();
+	}
+
+	private static int getInt(Properties config, String key, int defaultValue) {
+		String value = config.getProperty(key);
+		try {
+			return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	// Virtual threads only exist from Java 21 on, so look the factory up at runtime.
+	private static ExecutorService newExecutor(boolean virtualThreads) {
+		if (virtualThreads) {
+			try {
+				Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				log.info("Running downloads on virtual threads");
+				return (ExecutorService) factory.invoke(null);
+			} catch (Exception e) {
+				log.warn("Virtual threads are not available, running downloads on platform threads");
+			}
+		}
+		return Executors.newCachedThreadPool();
+	}
+}
@@ -1,90 +1,379 @@
-package com.suriya.tool;
-import java.util.*;
-import javax.swing.*;
-import javax.swing.table.*;
-
-import org.apache.commons.io.FileUtils;
-
-// This class manages the download table's data.
-class DownloadsTableModel extends AbstractTableModel implements Observer {
-  // These are the names for the table's columns.
-  private static final String[] columnNames = {"URL", "Size", "Progress", "Status"};
-
-  // These are the classes for each column's values.
-  private static final Class[] columnClasses = {String.class, String.class, JProgressBar.class, String.class};
-
-  // The table's list of downloads.
-  private ArrayList downloadList = new ArrayList();
-
-  // Add a new download to the table.
-  //public void addDownload(HTTPDownload download) {
-  public void addDownload(SimpleDownload download) {
-    // Register to be notified when the download changes.
-    download.addObserver(this);
-
-    downloadList.add(download);
-
-    // Fire table row insertion notification to table.
-    fireTableRowsInserted(getRowCount() - 1, getRowCount() - 1);
-  }
-
-  // Get a download for the specified row.
-  public SimpleDownload getDownload(int row) {
-	    return (SimpleDownload) downloadList.get(row);
-  }
-  
-  // Remove a download from the list.
-  public void clearDownload(int row) {
-    downloadList.remove(row);
-
-    // Fire table row deletion notification to table.
-    fireTableRowsDeleted(row, row);
-  }
-
-  // Get table's column count.
-  public int getColumnCount() {
-    return columnNames.length;
-  }
-
-  // Get a column's name.
-  public String getColumnName(int col) {
-     return columnNames[col];
-  }
-
-  // Get a column's class.
-  public Class getColumnClass(int col) {
-    return columnClasses[col];
-  }
-
-  // Get table's row count.
-  public int getRowCount() {
-    return downloadList.size();
-  }
-
-  // Get value for a specific row and column combination.
-  public Object getValueAt(int row, int col) {  
-	 SimpleDownload download = (SimpleDownload) downloadList.get(row);
-    switch (col) {
-      case 0: // URL
-        return download.getUrl();
-      case 1: // Size
-        long size = download.getSize();
-        //return (size == -1) ? "" : Long.toString(size);
-        return (size == -1) ? "" : FileUtils.byteCountToDisplaySize(size);
-      case 2: // Progress
-        return new Float(download.getProgress());
-      case 3: // Status
-        return SimpleDownload.STATUSES[download.getStatus()];
-    }
-    return "";
-  }
-
-  /* Update is called when a Download notifies its
-     observers of any changes */
-  public void update(Observable o, Object arg) {
-    int index = downloadList.indexOf(o);
-
-    // Fire table row update notification to table.
-    fireTableRowsUpdated(index, index);
-  }
-}
+package com.suriya.tool;
+import java.util.*;
+import javax.swing.*;
+import javax.swing.table.*;
+
+import org.apache.commons.io.FileUtils;
+
+/*
+ * This class manages the download table's data. Each download has a row that
+ * caches what the table shows, refreshed only when the ProgressSampler reports
+ * the download changed. The table shows a view of the rows: those passing the
+ * status and host filters, in the chosen order. A changed row is moved or
+ * dropped on its own by binary search, so a sample never rescans the table.
+ */
+class DownloadsTableModel extends AbstractTableModel implements ProgressListener {
+  // These are the names for the table's columns.
+  private static final String[] columnNames = {"URL", "Size", "Progress", "Status", "Speed"};
+
+  // These are the classes for each column's values.
+  private static final Class[] columnClasses = {String.class, String.class, JProgressBar.class, String.class,
+      String.class};
+
+  // These are the orders of the view.
+  public static final String SORTS[] = {"Added", "Status", "Host", "Speed"};
+
+  public static final int SORT_ADDED = 0;
+  public static final int SORT_STATUS = 1;
+  public static final int SORT_HOST = 2;
+  public static final int SORT_SPEED = 3; // fastest first
+
+  // Status filter that shows every download.
+  public static final int ANY_STATUS = -1;
+
+  // Weight of the newest sample in a row's speed.
+  private static final double SPEED_SMOOTHING = 0.5;
+
+  // Time without a byte after which a running download shows no speed.
+  private static final long STALLED_NANOS = 750000000L;
+
+  // Row of each download.
+  private final Map<SimpleDownload, Row> rows = new HashMap<SimpleDownload, Row>();
+
+  // The rows shown, in view order.
+  private final ArrayList<Row> view = new ArrayList<Row>();
+
+  private long added = 0L; // rows ever added, numbers the rows in added order
+  private int sort = SORT_ADDED;
+  private int statusFilter = ANY_STATUS;
+  private String hostFilter = null; // null shows every host
+
+  // Rows scrolled into view; updates to other rows are not fired.
+  private int firstVisible = 0;
+  private int lastVisible = Integer.MAX_VALUE;
+
+  // What the table shows for one download.
+  private static class Row {
+    final SimpleDownload download;
+    final long order; // when it was added
+    final String url;
+    final String host;
+    int index = -1; // position in the view, -1 when filtered out
+
+    long size = -2L;
+    String sizeText = "";
+    float percent = Float.NaN;
+    Float progress;
+    int status = -1;
+    long downloaded;
+    long sampled; // nano time of the last refresh
+    double speed = 0.0; // bytes per second
+    String speedText = "";
+
+    Row(SimpleDownload download, long order) {
+      this.download = download;
+      this.order = order;
+      url = download.getUrl();
+      String host = download.uri.getHost();
+      this.host = (host != null) ? host : "";
+      downloaded = download.downloaded;
+      sampled = System.nanoTime();
+    }
+
+    // Read the download again. Returns whether anything shown has changed.
+    boolean refresh() {
+      boolean changed = false;
+      long now = System.nanoTime();
+      long current = download.downloaded;
+      int currentStatus = download.getStatus();
+      if (currentStatus == SimpleDownload.DOWNLOADING && current == downloaded && now - sampled >= STALLED_NANOS) {
+        // The sampler reports a stalled download about once a second.
+        speed = 0.0;
+      } else if (currentStatus == SimpleDownload.DOWNLOADING && now > sampled) {
+        double rate = (current - downloaded) * 1e9 / (now - sampled);
+        speed = (speed == 0.0) ? rate : SPEED_SMOOTHING * rate + (1 - SPEED_SMOOTHING) * speed;
+      } else {
+        speed = 0.0;
+      }
+      downloaded = current;
+      sampled = now;
+      String text = (speed > 0.0) ? FileUtils.byteCountToDisplaySize((long) speed) + "/s" : "";
+      if (!text.equals(speedText)) {
+        speedText = text;
+        changed = true;
+      }
+
+      long currentSize = download.getSize();
+      if (currentSize != size) {
+        size = currentSize;
+        sizeText = (size == -1) ? "" : FileUtils.byteCountToDisplaySize(size);
+        changed = true;
+      }
+      float currentPercent = download.getProgress();
+      if (Float.compare(currentPercent, percent) != 0) {
+        // Only the whole percent is drawn, but the value is kept exact.
+        if (progress == null || (int) currentPercent != (int) percent)
+          changed = true;
+        percent = currentPercent;
+        progress = Float.valueOf(percent);
+      }
+      if (currentStatus != status) {
+        status = currentStatus;
+        changed = true;
+      }
+      return changed;
+    }
+  }
+
+  // Orders rows in the view; ties keep the added order.
+  private final Comparator<Row> comparator = new Comparator<Row>() {
+    public int compare(Row a, Row b) {
+      int result = 0;
+      switch (sort) {
+        case SORT_STATUS:
+          result = Integer.compare(a.status, b.status);
+          break;
+        case SORT_HOST:
+          result = a.host.compareTo(b.host);
+          break;
+        case SORT_SPEED:
+          result = Double.compare(b.speed, a.speed);
+          break;
+      }
+      return (result != 0) ? result : Long.compare(a.order, b.order);
+    }
+  };
+
+  // Add a new download to the table.
+  public void addDownload(SimpleDownload download) {
+    if (rows.containsKey(download))
+      return;
+    Row row = new Row(download, added++);
+    row.refresh();
+    rows.put(download, row);
+    if (accepts(row))
+      insert(row);
+  }
+
+  // Get a download for the specified row.
+  public SimpleDownload getDownload(int row) {
+    return view.get(row).download;
+  }
+
+  // Get the row showing a download, or -1 if it is not shown.
+  public int getRow(SimpleDownload download) {
+    Row row = rows.get(download);
+    return (row != null) ? row.index : -1;
+  }
+
+  // Remove a download from the list.
+  public void clearDownload(int index) {
+    Row row = view.get(index);
+    rows.remove(row.download);
+    remove(row);
+  }
+
+  // Order the view by one of the SORT_ values.
+  public void setSort(int sort) {
+    if (sort != this.sort) {
+      this.sort = sort;
+      rebuild();
+    }
+  }
+
+  public int getSort() {
+    return sort;
+  }
+
+  // Show only downloads with a status, or ANY_STATUS, and from a host, or null.
+  public void setFilter(int status, String host) {
+    if (host != null && host.length() == 0)
+      host = null;
+    if (status != statusFilter || !Objects.equals(host, hostFilter)) {
+      statusFilter = status;
+      hostFilter = host;
+      rebuild();
+    }
+  }
+
+  /* Set the rows the table has scrolled into view. Rows outside them are
+     kept up to date but not repainted until they are scrolled to. */
+  public void setVisibleRows(int first, int last) {
+    firstVisible = first;
+    lastVisible = last;
+  }
+
+  // Get table's column count.
+  public int getColumnCount() {
+    return columnNames.length;
+  }
+
+  // Get a column's name.
+  public String getColumnName(int col) {
+     return columnNames[col];
+  }
+
+  // Get a column's class.
+  public Class getColumnClass(int col) {
+    return columnClasses[col];
+  }
+
+  // Get table's row count.
+  public int getRowCount() {
+    return view.size();
+  }
+
+  // Get value for a specific row and column combination.
+  public Object getValueAt(int index, int col) {
+    Row row = view.get(index);
+    switch (col) {
+      case 0: // URL
+        return row.url;
+      case 1: // Size
+        return row.sizeText;
+      case 2: // Progress
+        return row.progress;
+      case 3: // Status
+        return SimpleDownload.STATUSES[row.status];
+      case 4: // Speed
+        return row.speedText;
+    }
+    return "";
+  }
+
+  /* Called by the ProgressSampler with the downloads that changed
+     since its last sample. The rows are updated on the event thread. */
+  public void downloadsChanged(final List<SimpleDownload> downloads) {
+    SwingUtilities.invokeLater(new Runnable() {
+      public void run() {
+        List<Row> dirty = new ArrayList<Row>();
+        for (SimpleDownload download : downloads) {
+          Row row = rows.get(download);
+          if (row != null)
+            update(row, dirty);
+        }
+        fireUpdated(dirty);
+      }
+    });
+  }
+
+  // Refresh a changed row and move it in the view if its place has changed.
+  private void update(Row row, List<Row> dirty) {
+    int from = row.index;
+    if (from < 0) {
+      row.refresh();
+      if (accepts(row))
+        insert(row);
+      return;
+    }
+
+    boolean changed = row.refresh();
+    if (!accepts(row)) {
+      remove(row);
+      return;
+    }
+    if (inPlace(row)) {
+      if (changed)
+        dirty.add(row);
+      return;
+    }
+
+    /* The rest of the view is still sorted, so the row's new place is searched
+       without it. Only the rows between the two places shift. */
+    int to = insertionPoint(row, from);
+    if (to > from)
+      Collections.rotate(view.subList(from, to + 1), -1);
+    else
+      Collections.rotate(view.subList(to, from + 1), 1);
+    renumber(Math.min(from, to), Math.max(from, to));
+    fireTableRowsDeleted(from, from);
+    fireTableRowsInserted(to, to);
+  }
+
+  // Whether a row in the view is still between its neighbours.
+  private boolean inPlace(Row row) {
+    int index = row.index;
+    return (index == 0 || comparator.compare(view.get(index - 1), row) < 0)
+        && (index == view.size() - 1 || comparator.compare(row, view.get(index + 1)) < 0);
+  }
+
+  // Fire updates for the dirty rows in view, a run of neighbouring rows at a time.
+  private void fireUpdated(List<Row> dirty) {
+    int count = 0;
+    int[] indexes = new int[dirty.size()];
+    for (Row row : dirty) {
+      if (row.index >= firstVisible && row.index <= lastVisible)
+        indexes[count++] = row.index;
+    }
+    Arrays.sort(indexes, 0, count);
+    int i = 0;
+    while (i < count) {
+      int first = indexes[i];
+      int last = first;
+      while (++i < count && indexes[i] <= last + 1)
+        last = indexes[i];
+      fireTableRowsUpdated(first, last);
+    }
+  }
+
+  private boolean accepts(Row row) {
+    return (statusFilter == ANY_STATUS || row.status == statusFilter)
+        && (hostFilter == null || row.host.equalsIgnoreCase(hostFilter));
+  }
+
+  // Place of a row not in the view.
+  private int insertionPoint(Row row) {
+    int index = Collections.binarySearch(view, row, comparator);
+    return (index < 0) ? -index - 1 : index;
+  }
+
+  // New place of the row at an index of the view, as if it were taken out first.
+  private int insertionPoint(Row row, int index) {
+    int low = 0;
+    int high = view.size() - 2;
+    while (low <= high) {
+      int middle = (low + high) >>> 1;
+      int probe = (middle < index) ? middle : middle + 1;
+      if (comparator.compare(view.get(probe), row) > 0)
+        high = middle - 1;
+      else
+        low = middle + 1;
+    }
+    return low;
+  }
+
+  private void insert(Row row) {
+    int index = insertionPoint(row);
+    view.add(index, row);
+    renumber(index, view.size() - 1);
+    fireTableRowsInserted(index, index);
+  }
+
+  private void remove(Row row) {
+    int index = row.index;
+    if (index < 0)
+      return;
+    view.remove(index);
+    row.index = -1;
+    renumber(index, view.size() - 1);
+    fireTableRowsDeleted(index, index);
+  }
+
+  private void renumber(int first, int last) {
+    for (int i = first; i <= last; i++)
+      view.get(i).index = i;
+  }
+
+  // Filter and sort every row again after the filters or the order changed.
+  private void rebuild() {
+    view.clear();
+    for (Row row : rows.values()) {
+      row.index = -1;
+      if (accepts(row))
+        view.add(row);
+    }
+    Collections.sort(view, comparator);
+    renumber(0, view.size() - 1);
+    fireTableDataChanged();
+  }
+}
@@ -0,0 +1,11 @@
+package com.suriya.tool;
+
+/*
+ * Shows download errors to the user. Downloads log every error themselves,
+ * so the default handler does nothing; the Swing UI installs one that opens a
+ * dialog.
+ */
+interface ErrorHandler {
+
+	void showError(SimpleDownload download, String message);
+}
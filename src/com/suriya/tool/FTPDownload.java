@@ -1,217 +1,354 @@
-package com.suriya.tool;
-
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.net.SocketException;
-import java.net.URI;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.CountingOutputStream;
-import org.apache.commons.net.ftp.FTP;
-import org.apache.commons.net.ftp.FTPClient;
-import org.apache.commons.net.ftp.FTPFile;
-import org.apache.commons.net.ftp.FTPReply;
-import org.apache.log4j.Logger;
-
-
-public class FTPDownload extends SimpleDownload {
-
-	final static Logger log = Logger.getLogger(FTPDownload.class);
-	private FTPClient ftpClient;
-	private int port = 21;
-
-	public FTPDownload(URI uri) {
-		super(uri);
-
-	}
-
-	private void connect() {
-		try {
-			ftpClient = new FTPClient();
-			ftpClient.connect(getServer(), port);
-			ftpClient.login(getUser(), getPass());
-			ftpClient.enterLocalPassiveMode();
-			ftpClient.setFileType(FTP.BINARY_FILE_TYPE);
-			int reply = ftpClient.getReplyCode();
-			if (FTPReply.isPositiveCompletion(reply)) {
-				log.info("Connected to FTP server successfully.");
-			} else {
-				log.info("Connection to FTP server failed.");
-				disconnect(ftpClient);
-				error();
-			}
-		} catch (SocketException ex) {
-			log.error("Not able to make the connection SFTP to server:" + getServer() + ", port:" + port + ", user:"
-					+ getUser() + ", with error:" + ex.getMessage());
-			error();
-		} catch (IOException ex) {
-			log.error("Not able to make the connection SFTP to server:" + getServer() + ", port:" + port + ", user:"
-					+ getUser() + ", with error:" + ex.getMessage());
-			error();
-		}
-	}
-
-	public void run() {
-
-		RandomAccessFile file = null;
-		InputStream stream = null;	
-		String errorMsg = "";
-		
-		try {
-			String fileName = getFileName(uri);
-			String directoryName = getDownloadPath();			
-			createDownloadPath(directoryName);
-		    log.info("Downloading the file:"+fileName+", URL:"+getUrl()+", dest directoryName"+directoryName); 
-			
-			connect();
-			long contentLength = 0;
-			try {
-				contentLength = getFileSize(ftpClient, fileName);
-			} catch (Exception e) {
-				errorMsg = "Not able to get the size of remote file (" + fileName + ") with the error: "
-						+ e.getMessage();
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				error();
-				disconnect(ftpClient);
-				return;
-			}
-
-			// Set the size for this download if it hasn't been already set.
-			if (size == -1) {
-				size = contentLength;
-				stateChanged();
-			}
-			
-			File currentLocalFile = new File(directoryName, fileName);          
-			
-			//Logic for retrieving the MD5 takes time to process when the file size is very big. Speed to download will be fast, if disable this feature.
-			InputStream remoteFileIs = ftpClient.retrieveFileStream(fileName);
-			String remoteFileMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(remoteFileIs);
-			remoteFileIs.close();
-			disconnect(ftpClient);
-
-			String localFileMD5 = "";
-			if (currentLocalFile.exists()) {
-				InputStream currentLocalFileIs = new FileInputStream(currentLocalFile);
-				localFileMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(currentLocalFileIs);
-				currentLocalFileIs.close();
-			}
-
-			log.info("Remote file MD5:" + remoteFileMD5 + ", Local file MD5:" + localFileMD5);
-
-			if (remoteFileMD5.length() > 0 && localFileMD5.length() > 0
-					&& localFileMD5.equalsIgnoreCase(remoteFileMD5)) {
-				errorMsg = "The remote file (" + fileName + ") already exists in the directory:" + directoryName;
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				status = COMPLETE;
-				stateChanged();
-				return;
-			}            
-         
-			// Set the local file length
-			long offset = currentLocalFile.exists() ? currentLocalFile.length() : 0;			
-
-			// long assumeDiskSpaceSize = 100000L;
-
-			boolean isDiskSpaceEnough = checkDiskFreeSpaceForFile(getFreeDiskSpace(), contentLength);
-			if (!isDiskSpaceEnough) {
-				errorMsg = "The free disk space size(" + FileUtils.byteCountToDisplaySize(getFreeDiskSpace())
-						+ ") is less than download " + "file size(" + FileUtils.byteCountToDisplaySize(contentLength)
-						+ "). Download can not be done.";
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				error();
-				return;
-			}		
-
-			if(offset>0) {
-				downloaded = offset;
-				stateChanged();
-			}
-			
-			// Open file and seek to the end of it.
-			file = new RandomAccessFile(directoryName+File.separator+fileName, "rw");
-			file.seek(downloaded);						
-		
-			connect();			
-			stream = retrieveFileStream(ftpClient, fileName, offset);
-			log.info("Downloading the file:" + fileName + " from server:" + getServer() + ", with user:" + getUser()+", current status:"+status);
-			while (status == DOWNLOADING) {			
-			
-				byte buffer[];
-				if (size - downloaded > MAX_BUFFER_SIZE) {
-					buffer = new byte[MAX_BUFFER_SIZE];
-				} else {
-					buffer = new byte[(int) (size - downloaded)];
-				}
-
-				// Read from server into buffer.
-				int read = stream.read(buffer);
-				if (read == 0) 
-					break;
-				
-				// Write buffer to file.
-				file.write(buffer, 0, read);				
-				downloaded += read;
-				stateChanged();			
-			}		
-					
-			/*
-			 * Change status to complete if this point was reached because
-			 * downloading has finished.
-			 */
-			if (status == DOWNLOADING) {
-				status = COMPLETE;
-				stateChanged();
-			}	
-			log.info("Finish downloading the file: " + directoryName + File.separator + fileName);
-		} catch (IOException ex) {
-			log.error("Error: " + ex.getMessage());
-			ex.printStackTrace();
-			error();
-		} finally {
-			// Close file.
-			if (file != null) {
-				try {
-					file.close();
-				} catch (Exception e) {
-				}
-			}			
-			disconnect(ftpClient);
-		}
-	}
-
-	private void disconnect(FTPClient ftpClient) {
-		try {
-			if (ftpClient.isConnected()) {
-				ftpClient.logout();
-				ftpClient.disconnect();
-			}
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-	}
-
-	private long getFileSize(FTPClient ftp, String filePath) throws Exception {
-		long fileSize = 0;
-		FTPFile[] files = ftp.listFiles(filePath);
-		if (files.length == 1 && files[0].isFile()) {
-			fileSize = files[0].getSize();
-		}
-		return fileSize;
-	}
-
-	public InputStream retrieveFileStream(FTPClient ftp, String remote, long offset) throws IOException {
-		ftp.setRestartOffset(offset);
-		return ftp.retrieveFileStream(remote);
-	}
-}
+package com.suriya.tool;
+
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.Logger;
+
+
+public class FTPDownload extends SimpleDownload {
+
+	final static Logger log = Logger.getLogger(FTPDownload.class);
+	private FTPClient ftpClient;
+	private int port = 21;
+
+	// Whether the session can go back to the pool: no transfer left open and no error.
+	private boolean reusable = false;
+
+	private String remoteFile; // path of the file on the server
+
+	// Idle sessions of a segmented transfer, each segment takes one while it runs.
+	private BlockingQueue<FTPClient> segmentSessions;
+
+	public FTPDownload(URI uri) {
+		super(uri);
+
+	}
+
+	public FTPDownload(URI uri, String localDirectory, RemoteMetadata listed) {
+		super(uri, localDirectory, listed);
+	}
+
+	public FTPDownload(URI uri, String localDirectory, RemoteMetadata listed, int priority) {
+		super(uri, localDirectory, listed, priority);
+	}
+
+	// Borrow a logged-in session to the server from the pool.
+	private void connect() {
+		if (uri.getPort() > 0)
+			port = uri.getPort();
+		try {
+			ftpClient = FtpSessionPool.getInstance().borrow(getServer(), port, getUser(), getPass());
+			reusable = true;
+		} catch (IOException ex) {
+			log.error("Not able to make the connection FTP to server:" + getServer() + ", port:" + port + ", user:"
+					+ getUser() + ", with error:" + ex.getMessage());
+			error();
+		}
+	}
+
+	public void run() {
+
+		InputStream stream = null;	
+		String errorMsg = "";
+		
+		try {
+			String fileName = getFileName(uri);
+			remoteFile = getRemotePath(uri);
+			String directoryName = getDownloadPath();			
+			createDownloadPath(directoryName);
+		    log.info("Downloading the file:"+fileName+", URL:"+getUrl()+", dest directoryName"+directoryName); 
+			
+			metrics.connecting();
+			connect();
+			if (ftpClient == null)
+				return;
+			metrics.connected();
+			long contentLength = 0;
+			RemoteMetadata remote = null;
+			try {
+				remote = getRemoteMetadata(ftpClient, remoteFile);
+				contentLength = remote.getSize();
+			} catch (Exception e) {
+				errorMsg = "Not able to get the size of remote file (" + fileName + ") with the error: "
+						+ e.getMessage();
+				log.error(errorMsg);
+				reportError(errorMsg);
+				error();
+				disconnect(ftpClient);
+				return;
+			}
+
+			// Set the size for this download if it hasn't been already set.
+			if (size == -1) {
+				size = contentLength;
+				stateChanged();
+			}
+			
+			File currentLocalFile = new File(directoryName, fileName);          
+			if (skipIfUpToDate(currentLocalFile, remote))
+				return;
+         
+			// Find where to resume, from the journal if the last run left one.
+			long offset = openJournal(currentLocalFile, remote, supportsRestart(ftpClient));
+
+			// long assumeDiskSpaceSize = 100000L;
+
+			boolean isDiskSpaceEnough = checkDiskFreeSpaceForFile(getFreeDiskSpace(), contentLength - offset);
+			if (!isDiskSpaceEnough) {
+				errorMsg = "The free disk space size(" + FileUtils.byteCountToDisplaySize(getFreeDiskSpace())
+						+ ") is less than download " + "file size(" + FileUtils.byteCountToDisplaySize(contentLength)
+						+ "). Download can not be done.";
+				log.error(errorMsg);
+				reportError(errorMsg);
+				error();
+				return;
+			}		
+
+			String filePath = directoryName + File.separator + fileName;
+			if (segments == null && offset == 0 && getSegmentCount() > 1 && supportsRestart(ftpClient))
+				planSegments(offset, getSegmentCount());
+
+			if (segments != null) {
+				log.info("Downloading the file:" + fileName + " in " + segments.size() + " segments");
+				preallocate(currentLocalFile, size);
+				metrics.transferring();
+				try {
+					downloadSegments(filePath, borrowSegmentSessions());
+				} finally {
+					releaseSegmentSessions();
+				}
+
+				// Segments arrive out of order, so the finished file is hashed once.
+				if (status == DOWNLOADING)
+					startDigest(currentLocalFile, size);
+			} else {
+				// Count from the offset, even 0, as a failed run may have counted bytes past it.
+				if (downloaded != offset) {
+					downloaded = offset;
+					stateChanged();
+				}
+			
+				preallocate(currentLocalFile, size);
+				startDigest(currentLocalFile, downloaded);
+		
+				reusable = false;
+				metrics.transferring();
+				stream = retrieveFileStream(ftpClient, remoteFile, offset);
+				if (stream == null)
+					throw new IOException("Server refused to send " + fileName + ": " + ftpClient.getReplyString());
+				log.info("Downloading the file:" + fileName + " from server:" + getServer() + ", with user:" + getUser()+", current status:"+status);
+				try {
+					copyStream(stream, currentLocalFile);
+				} finally {
+					savePartial(currentLocalFile);
+				}		
+
+				// Finish the transfer so the session can be reused.
+				stream.close();
+				stream = null;
+				reusable = ftpClient.completePendingCommand();
+			}
+
+			/*
+			 * Change status to complete if this point was reached because
+			 * downloading has finished.
+			 */
+			if (status == DOWNLOADING)
+				completeDownload(currentLocalFile, remote);
+			log.info("Finish downloading the file: " + directoryName + File.separator + fileName);
+		} catch (Exception ex) {
+			log.error("Error: " + ex.getMessage());
+			ex.printStackTrace();
+			reusable = false;
+			error();
+		} finally {
+			closeJournal();
+			// A transfer still open leaves the session unusable.
+			if (stream != null) {
+				reusable = false;
+				try {
+					stream.close();
+				} catch (Exception e) {
+				}
+			}
+			disconnect(ftpClient);
+		}
+	}
+
+	// Return the session to the pool, or close it if it can not be reused.
+	private void disconnect(FTPClient ftpClient) {
+		if (ftpClient != null) {
+			FtpSessionPool.getInstance().release(ftpClient, reusable);
+			this.ftpClient = null;
+		}
+	}
+
+	// Whether the server can start a transfer at an offset, needed for segments.
+	private boolean supportsRestart(FTPClient ftp) {
+		try {
+			Set<String> features = FtpSessionPool.getInstance().getFeatures(ftp);
+			return features != null && FtpSessionPool.supports(features, "REST STREAM");
+		} catch (IOException e) {
+			log.debug("Not able to read the features of " + getServer() + ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/*
+	 * Gather a session for each unfinished segment, starting with the one
+	 * already open. Extra sessions are only taken when free, so downloads never
+	 * wait on each other's segments. Returns the number of sessions.
+	 */
+	private int borrowSegmentSessions() {
+		segmentSessions = new LinkedBlockingQueue<FTPClient>();
+		segmentSessions.add(ftpClient);
+		ftpClient = null;
+
+		int wanted = 0;
+		for (Segment segment : segments) {
+			if (!segment.isComplete())
+				wanted++;
+		}
+		while (segmentSessions.size() < wanted) {
+			FTPClient session = null;
+			try {
+				session = FtpSessionPool.getInstance().tryBorrow(getServer(), port, getUser(), getPass());
+			} catch (IOException e) {
+				log.debug("Not able to open another session to " + getServer() + ": " + e.getMessage());
+			}
+			if (session == null)
+				break;
+			segmentSessions.add(session);
+		}
+		return segmentSessions.size();
+	}
+
+	private void releaseSegmentSessions() {
+		FTPClient session;
+		while ((session = segmentSessions.poll()) != null)
+			FtpSessionPool.getInstance().release(session, true);
+	}
+
+	/*
+	 * Download one byte range into place: REST to its position, RETR, and
+	 * close the data connection once the range is read, which aborts the rest.
+	 */
+	@Override
+	protected void downloadSegment(String filePath, Segment segment) throws IOException {
+		FTPClient session = null;
+		try {
+			while (session == null && status == DOWNLOADING)
+				session = segmentSessions.poll(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an FTP session");
+		}
+		if (session == null)
+			return;
+
+		boolean sessionReusable = false;
+		InputStream segmentStream = null;
+		try {
+			segmentStream = retrieveFileStream(session, remoteFile, segment.getPosition());
+			if (segmentStream == null)
+				throw new IOException("Server refused to send " + segment + ": " + session.getReplyString());
+			copySegment(segmentStream, filePath, segment);
+
+			/* The server answers an early close with a single 426 reply, or 226 or 225
+			   if the transfer had already ended, so the session stays in step. Any
+			   other reply leaves it in an unknown state and it is not reused. */
+			segmentStream.close();
+			segmentStream = null;
+			session.completePendingCommand();
+			int reply = session.getReplyCode();
+			sessionReusable = reply == FTPReply.TRANSFER_ABORTED || reply == FTPReply.CLOSING_DATA_CONNECTION
+					|| reply == FTPReply.DATA_CONNECTION_OPEN;
+			if (!sessionReusable)
+				log.debug("Not reusing the session to " + getServer() + " after reply " + session.getReplyString());
+		} finally {
+			if (segmentStream != null) {
+				try {
+					segmentStream.close();
+				} catch (Exception e) {
+				}
+			}
+			if (sessionReusable)
+				segmentSessions.add(session);
+			else
+				FtpSessionPool.getInstance().release(session, false);
+		}
+	}
+
+	// Read the size from a directory listing, for servers without SIZE or MLST.
+	private long getFileSize(FTPClient ftp, String filePath) throws Exception {
+		long fileSize = 0;
+		FTPFile[] files = ftp.listFiles(filePath);
+		if (files.length == 1 && files[0].isFile()) {
+			fileSize = files[0].getSize();
+		}
+		return fileSize;
+	}
+
+	/*
+	 * Read the size and modification time over the control connection, with
+	 * MLST where the server supports it and SIZE and MDTM otherwise. A listing
+	 * is only parsed if neither is supported. Metadata from a directory
+	 * listing queued with the file is used as is.
+	 */
+	private RemoteMetadata getRemoteMetadata(FTPClient ftp, String filePath) throws Exception {
+		RemoteMetadata listed = takeListed();
+		if (listed != null)
+			return listed;
+
+		Set<String> features = FtpSessionPool.getInstance().getFeatures(ftp);
+		if (FtpSessionPool.supports(features, "MLST")) {
+			FTPFile file = ftp.mlistFile(filePath);
+			if (file != null && file.getSize() >= 0)
+				return FtpDirectory.toMetadata(file);
+		}
+
+		long fileSize = -1;
+		if (FtpSessionPool.supports(features, "SIZE") && FTPReply.isPositiveCompletion(ftp.sendCommand("SIZE", filePath))) {
+			fileSize = Long.parseLong(ftp.getReplyString().substring(4).trim());
+		} else {
+			fileSize = getFileSize(ftp, filePath);
+		}
+
+		long lastModified = 0L;
+		if (FtpSessionPool.supports(features, "MDTM")) {
+			FTPFile mdtm = ftp.mdtmFile(filePath);
+			if (mdtm != null && mdtm.getTimestamp() != null)
+				lastModified = mdtm.getTimestamp().getTimeInMillis();
+		}
+		return new RemoteMetadata(fileSize, lastModified);
+	}
+
+	/*
+	 * Open the data connection for a file from an offset. The session's
+	 * buffers are sized for this run first, as pooled sessions may come from
+	 * a run with other settings.
+	 */
+	public InputStream retrieveFileStream(FTPClient ftp, String remote, long offset) throws IOException {
+		ftp.setBufferSize(getBufferSize());
+		ftp.setReceieveDataSocketBufferSize(getReceiveBufferSize());
+		ftp.setRestartOffset(offset);
+		return ftp.retrieveFileStream(remote);
+	}
+}
@@ -0,0 +1,231 @@
+package com.suriya.tool;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+
+/*
+ * This class writes bytes read from a transfer stream into place in the local
+ * file. Every protocol copies through it, so the way bytes reach the disk is
+ * chosen once, with WRITE.MODE in config.properties:
+ *
+ *   stream    heap buffer and RandomAccessFile.write (default)
+ *   channel   pooled direct buffer and positional FileChannel.write
+ *   transfer  FileChannel.transferFrom from a channel over the stream
+ *   mmap      segments are read straight into a mapping of their range,
+ *             single streams fall back to channel
+ *
+ * transfer and mmap can only write within the file's length, so segmented
+ * downloads extend the file to its full size first (see needsLength).
+ * The streams handed out by the HTTP client, commons-net and JSch are not
+ * socket channels, so transfer still copies through a small JDK buffer; it
+ * saves the heap buffer, not the copy. Mappings are released by the garbage
+ * collector, a window at a time.
+ */
+abstract class FileSink implements Closeable {
+
+	public static final String STREAM = "stream";
+	public static final String CHANNEL = "channel";
+	public static final String TRANSFER = "transfer";
+	public static final String MMAP = "mmap";
+
+	// Most bytes of the file mapped at once in mmap mode.
+	public static final int MAP_WINDOW_SIZE = 64 * 1024 * 1024;
+
+	private InputStream source = null;
+	private ReadableByteChannel sourceChannel = null;
+
+	/*
+	 * Open a sink on a file for the given write mode. A segment sink may map
+	 * the file, a single-stream sink never does.
+	 */
+	public static FileSink open(File file, String mode, int bufferSize, boolean segment) throws IOException {
+		if (mode.equals(CHANNEL) || (mode.equals(MMAP) && !segment))
+			return new ChannelSink(file, bufferSize);
+		if (mode.equals(TRANSFER))
+			return new TransferSink(file);
+		if (mode.equals(MMAP))
+			return new MapSink(file);
+		return new StreamSink(file, bufferSize);
+	}
+
+	// Whether a segmented download in this mode needs the file at its full length before writing.
+	public static boolean needsLength(String mode) {
+		return mode.equals(TRANSFER) || mode.equals(MMAP);
+	}
+
+	/*
+	 * Read length bytes from the source, fewer only if it ends, and write them
+	 * at position. length is at most the buffer size the sink was opened with.
+	 * Returns the number of bytes written, or -1 at the end of the source.
+	 */
+	public abstract int copy(InputStream source, long position, int length) throws IOException;
+
+	/*
+	 * Feed the bytes of the last copy to the digest. Returns false if they
+	 * never passed through memory, so the file has to be read back instead.
+	 */
+	public abstract boolean digest(MessageDigest digest);
+
+	// Get a channel over the stream, kept for as long as the same stream is copied.
+	protected ReadableByteChannel channel(InputStream stream) {
+		if (stream != source) {
+			source = stream;
+			sourceChannel = Channels.newChannel(stream);
+		}
+		return sourceChannel;
+	}
+
+	// Read until the buffer is full or the channel ends. Returns -1 at the end of the channel.
+	protected static int fill(ReadableByteChannel channel, ByteBuffer buffer) throws IOException {
+		int filled = 0;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer);
+			if (read == -1)
+				break;
+			filled += read;
+		}
+		return (filled == 0) ? -1 : filled;
+	}
+
+	// Heap buffer and RandomAccessFile, as the copy loops always did.
+	private static class StreamSink extends FileSink {
+		private final RandomAccessFile file;
+		private final byte[] buffer;
+		private int last = 0;
+
+		StreamSink(File target, int bufferSize) throws IOException {
+			file = new RandomAccessFile(target, "rw");
+			buffer = BufferPool.acquire(bufferSize);
+		}
+
+		public int copy(InputStream source, long position, int length) throws IOException {
+			int filled = 0;
+			while (filled < length) {
+				int read = source.read(buffer, filled, length - filled);
+				if (read == -1)
+					break;
+				filled += read;
+			}
+			if (filled == 0)
+				return -1;
+			if (file.getFilePointer() != position)
+				file.seek(position);
+			file.write(buffer, 0, filled);
+			last = filled;
+			return filled;
+		}
+
+		public boolean digest(MessageDigest digest) {
+			digest.update(buffer, 0, last);
+			return true;
+		}
+
+		public void close() throws IOException {
+			BufferPool.release(buffer);
+			file.close();
+		}
+	}
+
+	// Direct buffer written with positional writes, so the JDK does not copy it again.
+	private static class ChannelSink extends FileSink {
+		private final FileChannel file;
+		private final ByteBuffer buffer;
+
+		ChannelSink(File target, int bufferSize) throws IOException {
+			file = new RandomAccessFile(target, "rw").getChannel();
+			buffer = BufferPool.acquireDirect(bufferSize);
+		}
+
+		public int copy(InputStream source, long position, int length) throws IOException {
+			buffer.clear();
+			buffer.limit(length);
+			int read = fill(channel(source), buffer);
+			if (read == -1)
+				return -1;
+			buffer.flip();
+			while (buffer.hasRemaining())
+				position += file.write(buffer, position);
+			return read;
+		}
+
+		public boolean digest(MessageDigest digest) {
+			buffer.rewind();
+			digest.update(buffer);
+			return true;
+		}
+
+		public void close() throws IOException {
+			BufferPool.releaseDirect(buffer);
+			file.close();
+		}
+	}
+
+	// Hand the whole copy to FileChannel.transferFrom.
+	private static class TransferSink extends FileSink {
+		private final FileChannel file;
+
+		TransferSink(File target) throws IOException {
+			file = new RandomAccessFile(target, "rw").getChannel();
+		}
+
+		public int copy(InputStream source, long position, int length) throws IOException {
+			// transferFrom writes nothing past the end of the file.
+			if (position > file.size())
+				throw new IOException("Position " + position + " is past the end of the file");
+			long transferred = file.transferFrom(channel(source), position, length);
+			return (transferred == 0) ? -1 : (int) transferred;
+		}
+
+		public boolean digest(MessageDigest digest) {
+			return false;
+		}
+
+		public void close() throws IOException {
+			file.close();
+		}
+	}
+
+	// Read straight into a mapped window of the file.
+	private static class MapSink extends FileSink {
+		private final FileChannel file;
+		private MappedByteBuffer window = null;
+		private long windowStart = 0L;
+
+		MapSink(File target) throws IOException {
+			file = new RandomAccessFile(target, "rw").getChannel();
+		}
+
+		public int copy(InputStream source, long position, int length) throws IOException {
+			if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+				long mapped = Math.min(MAP_WINDOW_SIZE, file.size() - position);
+				if (mapped < length)
+					throw new IOException("Position " + position + " is past the end of the file");
+				window = file.map(FileChannel.MapMode.READ_WRITE, position, mapped);
+				windowStart = position;
+			}
+
+			ByteBuffer target = window.duplicate();
+			target.position((int) (position - windowStart));
+			target.limit(target.position() + length);
+			return fill(channel(source), target);
+		}
+
+		public boolean digest(MessageDigest digest) {
+			return false;
+		}
+
+		public void close() throws IOException {
+			window = null;
+			file.close();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.suriya.tool;
+
+import java.io.File;
+
+/*
+ * Decides whether the local copy of a remote file is already current, so the
+ * download can be skipped.
+ */
+interface FreshnessCheck {
+
+	boolean isUpToDate(File localFile, RemoteMetadata remote);
+
+	/*
+	 * Remember what was downloaded once the local file is complete, along with
+	 * the hex digest computed while it was written.
+	 */
+	void downloaded(File localFile, RemoteMetadata remote, String digest);
+}
@@ -0,0 +1,65 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPFile;
+
+/*
+ * This class lists FTP directories over pooled sessions, with MLSD where the
+ * server supports it, so each file's size and modification time come with
+ * the listing and the transfer starts without asking the server again.
+ */
+class FtpDirectory implements RemoteLister {
+
+	private final String host;
+	private final int port;
+	private final String user;
+	private final String pass;
+
+	FtpDirectory(String host, int port, String user, String pass) {
+		this.host = host;
+		this.port = port;
+		this.user = user;
+		this.pass = pass;
+	}
+
+	public List<Entry> list(String directory) throws IOException {
+		FtpSessionPool pool = FtpSessionPool.getInstance();
+		FTPClient ftp = pool.borrow(host, port, user, pass);
+		boolean reusable = false;
+		FTPFile[] files;
+		try {
+			String path = (directory.length() == 0) ? null : directory;
+			Set<String> features = pool.getFeatures(ftp);
+			if (features != null && FtpSessionPool.supports(features, "MLST"))
+				files = ftp.mlistDir(path);
+			else
+				files = ftp.listFiles(path);
+			reusable = true;
+		} finally {
+			pool.release(ftp, reusable);
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+		for (FTPFile file : files) {
+			// MLSD also lists the directory itself and its parent.
+			if (file == null || file.getName().equals(".") || file.getName().equals("..")
+					|| file.getName().contains("/"))
+				continue;
+			if (file.isDirectory())
+				entries.add(new Entry(file.getName(), true, null));
+			else if (file.isFile())
+				entries.add(new Entry(file.getName(), false, toMetadata(file)));
+		}
+		return entries;
+	}
+
+	public static RemoteMetadata toMetadata(FTPFile file) {
+		long lastModified = (file.getTimestamp() != null) ? file.getTimestamp().getTimeInMillis() : 0L;
+		return new RemoteMetadata(file.getSize(), lastModified);
+	}
+}
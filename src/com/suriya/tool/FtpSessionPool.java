@@ -0,0 +1,283 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.net.ftp.FTP;
+import org.apache.commons.net.ftp.FTPClient;
+import org.apache.commons.net.ftp.FTPReply;
+import org.apache.log4j.Logger;
+
+/*
+ * This class keeps logged-in FTP sessions for reuse, keyed by host, port and
+ * user. A borrowed session is checked with NOOP first, idle sessions are closed
+ * after a timeout, and each server gets at most a fixed number of sessions.
+ *
+ * Settings in config.properties:
+ *   FTP.POOL.MAX.PER.SERVER   sessions open to one server and user (default 4)
+ *   FTP.POOL.IDLE.TIMEOUT     milliseconds before an idle session is closed (default 60000)
+ *   FTP.POOL.BORROW.TIMEOUT   milliseconds to wait for a free session (default 300000)
+ */
+class FtpSessionPool {
+
+	final static Logger log = Logger.getLogger(FtpSessionPool.class);
+
+	private static FtpSessionPool instance = null;
+
+	// An idle session and when it was returned.
+	private static class Idle {
+		final FTPClient client;
+		final long since;
+
+		Idle(FTPClient client, long since) {
+			this.client = client;
+			this.since = since;
+		}
+	}
+
+	private final Properties config;
+	private final int maxPerServer;
+	private final long idleTimeout;
+	private final long borrowTimeout;
+
+	private final Map<String, Deque<Idle>> idle = new HashMap<String, Deque<Idle>>();
+	private final Map<String, Integer> open = new HashMap<String, Integer>();
+	private final Map<FTPClient, String> keys = new HashMap<FTPClient, String>();
+
+	// Features each server listed in reply to FEAT, by host and port. Empty if FEAT is not supported.
+	private final Map<String, Set<String>> features = new HashMap<String, Set<String>>();
+
+	FtpSessionPool(Properties config) {
+		this.config = config;
+		this.maxPerServer = Integer.parseInt(config.getProperty("FTP.POOL.MAX.PER.SERVER", "4").trim());
+		this.idleTimeout = Long.parseLong(config.getProperty("FTP.POOL.IDLE.TIMEOUT", "60000").trim());
+		this.borrowTimeout = Long.parseLong(config.getProperty("FTP.POOL.BORROW.TIMEOUT", "300000").trim());
+
+		ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "ftp-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000L, idleTimeout / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public static synchronized FtpSessionPool getInstance() {
+		if (instance == null)
+			instance = new FtpSessionPool(SimpleDownload.loadConfig());
+		return instance;
+	}
+
+	/*
+	 * Get a logged-in session in binary passive mode, reusing an idle one when
+	 * it still answers NOOP. Waits while the server is at its session limit.
+	 */
+	public FTPClient borrow(String host, int port, String user, String pass) throws IOException {
+		return borrow(host, port, user, pass, true);
+	}
+
+	/*
+	 * Get a session like borrow, but return null at once instead of waiting if
+	 * the server is at its session limit.
+	 */
+	public FTPClient tryBorrow(String host, int port, String user, String pass) throws IOException {
+		return borrow(host, port, user, pass, false);
+	}
+
+	private FTPClient borrow(String host, int port, String user, String pass, boolean wait) throws IOException {
+		String key = host + ":" + port + ":" + user;
+		long deadline = System.currentTimeMillis() + borrowTimeout;
+		while (true) {
+			FTPClient client = null;
+			synchronized (this) {
+				Deque<Idle> sessions = idle.get(key);
+				Idle session = (sessions == null) ? null : sessions.pollLast();
+				if (session != null) {
+					client = session.client;
+				} else if (count(key) < maxPerServer) {
+					open.put(key, count(key) + 1);
+				} else if (!wait) {
+					return null;
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw new IOException("Timed out waiting for an FTP session to " + key);
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for an FTP session to " + key);
+					}
+					continue;
+				}
+			}
+
+			if (client == null)
+				return login(key, host, port, user, pass);
+			if (isAlive(client))
+				return client;
+			close(client);
+		}
+	}
+
+	/*
+	 * Give a session back. Sessions that were interrupted mid-transfer or hit
+	 * an error are closed instead of reused.
+	 */
+	public void release(FTPClient client, boolean reusable) {
+		if (reusable && client.isConnected()) {
+			synchronized (this) {
+				String key = keys.get(client);
+				Deque<Idle> sessions = idle.get(key);
+				if (sessions == null) {
+					sessions = new ArrayDeque<Idle>();
+					idle.put(key, sessions);
+				}
+				sessions.addLast(new Idle(client, System.currentTimeMillis()));
+				notifyAll();
+			}
+		} else {
+			close(client);
+		}
+	}
+
+	/*
+	 * Get the features the session's server listed in reply to FEAT, in upper
+	 * case, such as "MLST TYPE*;SIZE*;MODIFY*;" or "REST STREAM". Asked once
+	 * per server and cached. Returns null if the server does not support FEAT.
+	 */
+	public Set<String> getFeatures(FTPClient client) throws IOException {
+		String key;
+		synchronized (this) {
+			key = keys.get(client);
+			key = key.substring(0, key.lastIndexOf(':'));
+			if (features.containsKey(key))
+				return features.get(key).isEmpty() ? null : features.get(key);
+		}
+
+		Set<String> listed = new TreeSet<String>();
+		if (client.features()) {
+			String[] lines = client.getReplyStrings();
+			// The first and last lines are the reply code lines.
+			for (int i = 1; i < lines.length - 1; i++)
+				listed.add(lines[i].trim().toUpperCase());
+		}
+		log.info("FTP server " + key + " features: " + listed);
+		synchronized (this) {
+			features.put(key, listed);
+		}
+		return listed.isEmpty() ? null : listed;
+	}
+
+	/*
+	 * Whether a server with the given features supports a command: it was
+	 * listed, or the server does not answer FEAT and the command is worth a try.
+	 */
+	public static boolean supports(Set<String> features, String command) {
+		if (features == null)
+			return true;
+		for (String feature : features) {
+			if (feature.equals(command) || feature.startsWith(command + " "))
+				return true;
+		}
+		return false;
+	}
+
+	private FTPClient login(String key, String host, int port, String user, String pass) throws IOException {
+		FTPClient client = new FTPClient();
+		synchronized (this) {
+			keys.put(client, key);
+		}
+		try {
+			client.connect(host, port);
+			if (!client.login(user, pass))
+				throw new IOException("Login failed: " + client.getReplyString());
+			client.enterLocalPassiveMode();
+			client.setFileType(FTP.BINARY_FILE_TYPE);
+			client.setBufferSize(getInt("FTP.BUFFER.SIZE", SimpleDownload.DEFAULT_BUFFER_SIZE));
+			if (!FTPReply.isPositiveCompletion(client.getReplyCode()))
+				throw new IOException("Connection to FTP server failed: " + client.getReplyString());
+			log.info("Connected to FTP server successfully: " + key);
+			return client;
+		} catch (IOException e) {
+			close(client);
+			throw e;
+		}
+	}
+
+	// Check an idle session with NOOP before handing it out again.
+	private boolean isAlive(FTPClient client) {
+		try {
+			return client.isConnected() && client.sendNoOp();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	// Log out and forget a session, freeing its slot.
+	private void close(FTPClient client) {
+		synchronized (this) {
+			String key = keys.remove(client);
+			if (key != null)
+				open.put(key, count(key) - 1);
+			notifyAll();
+		}
+		try {
+			if (client.isConnected()) {
+				client.logout();
+				client.disconnect();
+			}
+		} catch (IOException e) {
+			log.debug("Error when closing FTP session: " + e.getMessage());
+		}
+	}
+
+	private void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		Deque<FTPClient> expired = new ArrayDeque<FTPClient>();
+		synchronized (this) {
+			for (Deque<Idle> sessions : idle.values()) {
+				for (Iterator<Idle> it = sessions.iterator(); it.hasNext();) {
+					Idle session = it.next();
+					if (session.since < cutoff) {
+						it.remove();
+						expired.add(session.client);
+					}
+				}
+			}
+		}
+		for (FTPClient client : expired)
+			close(client);
+	}
+
+	private int count(String key) {
+		Integer count = open.get(key);
+		return (count == null) ? 0 : count;
+	}
+
+	private int getInt(String key, int defaultValue) {
+		String value = config.getProperty(key);
+		try {
+			return (value == null) ? defaultValue : Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+}
@@ -1,190 +1,300 @@
-package com.suriya.tool;
-
-import java.io.*;
-import java.net.*;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.log4j.Logger;
-
-// This class downloads a file from a URL.
-class HTTPDownload extends SimpleDownload {
-
-	final static Logger log = Logger.getLogger(HTTPDownload.class);
-	private HttpURLConnection connection;
-	
-	public HTTPDownload(URI uri) {
-		super(uri);		
-	}
-
-	private void connect(long currerntRange) {
-		// Open connection to URL.
-		URL url = null;
-		try {
-			url = new URL(getUrl());
-			log.info("url:"+getUrl());
-			connection = (HttpURLConnection) url.openConnection();		
-			// Specify what portion of file to download.
-			connection.setRequestProperty("Range", "bytes=" + currerntRange + "-");
-			// Connect to server.
-			connection.connect();
-		} catch (MalformedURLException e) {
-			log.error("Error when trying to make HTTP connection: "+e.getMessage());
-			error();
-		} catch (IOException e) {
-			log.error("Error when trying to make HTTP connection: "+e.getMessage());
-			error();
-		}
-	}
-	
-	// Download file.
-	public void run() {
-		RandomAccessFile file = null;
-		InputStream stream = null;
-		String errorMsg = "";
-
-		try {
-			String fileName = getFileName(uri);
-			String directoryName = getDownloadPath();			
-			createDownloadPath(directoryName);
-			
-			connect(downloaded);				
-			
-			// Make sure response code is in the 200 range.
-			if (connection.getResponseCode() / 100 != 2) {
-				error();
-				return;
-			}
-
-			// Check for valid content length.
-			int contentLength = connection.getContentLength();
-			log.info("File:" + fileName + ", size:" + contentLength);
-			if (contentLength < 1) {
-				error();
-				return;
-			}
-
-			File currentLocalFile = new File(directoryName, fileName);
-			InputStream remoteFileIs = connection.getInputStream();	
-			String remoteFileMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(remoteFileIs);
-			remoteFileIs.close();
-			disconnect(connection);
-
-			String localFileMD5 = "";
-			if (currentLocalFile.exists()) {
-				InputStream currentLocalFileIs = new FileInputStream(currentLocalFile);
-				localFileMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(currentLocalFileIs);
-				currentLocalFileIs.close();
-			}
-
-			log.info("Remote file MD5:" + remoteFileMD5 + ", Local file MD5:" + localFileMD5);
-
-			if (remoteFileMD5.length() > 0 && localFileMD5.length() > 0
-					&& localFileMD5.equalsIgnoreCase(remoteFileMD5)) {
-				errorMsg = "The remote file (" + fileName + ") already exists in the directory:" + directoryName;
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				status = COMPLETE;
-				stateChanged();
-				return;
-			}
-			
-			// Set the local file length
-			long offset = currentLocalFile.exists() ? currentLocalFile.length() : 0;
-			
-			/*
-			 * Set the size for this download if it hasn't been already set.
-			 */
-			if (size == -1) {
-				size = contentLength;
-				stateChanged();
-			}
-			
-			boolean isDiskSpaceEnough = checkDiskFreeSpaceForFile(getFreeDiskSpace(), contentLength);
-			if (!isDiskSpaceEnough) {
-				errorMsg = "The free disk space size(" + FileUtils.byteCountToDisplaySize(getFreeDiskSpace())
-						+ ") is less than download " + "file size(" + FileUtils.byteCountToDisplaySize(contentLength)
-						+ "). Download can not be done.";
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				error();
-				return;
-			}
-
-			if(offset>0) {
-				downloaded = offset;
-				stateChanged();
-			}
-			
-			// Open file and seek to the end of it.
-			file = new RandomAccessFile(directoryName+File.separator+fileName, "rw");
-			file.seek(downloaded);
-
-			connect(downloaded);
-			
-			// Make sure response code is in the 200 range.
-			if (connection.getResponseCode() / 100 != 2) {
-				error();
-				return;
-			}
-			
-			stream = connection.getInputStream();
-			while (status == DOWNLOADING) {
-				/*
-				 * Size buffer according to how much of the file is left to
-				 * download.
-				 */
-				byte buffer[];
-				if (size - downloaded > MAX_BUFFER_SIZE) {
-					buffer = new byte[MAX_BUFFER_SIZE];
-				} else {
-					buffer = new byte[(int) (size - downloaded)];
-				}
-
-				// Read from server into buffer.
-				int read = stream.read(buffer);
-				//log.info("read:"+read);
-				if (read == -1)
-					break;
-
-				// Write buffer to file.
-				file.write(buffer, 0, read);
-				downloaded += read;
-				stateChanged();
-			}
-
-			/*
-			 * Change status to complete if this point was reached because
-			 * downloading has finished.
-			 */
-			if (status == DOWNLOADING) {
-				status = COMPLETE;
-				stateChanged();
-			}
-			log.info("Finish downloading the file: " + directoryName + File.separator + fileName);
-		} catch (Exception e) {
-			error();
-		} finally {
-			// Close file.
-			if (file != null) {
-				try {
-					file.close();
-				} catch (Exception e) {
-				}
-			}
-			// Close connection to server.
-			if (stream != null) {
-				try {
-					stream.close();
-				} catch (Exception e) {
-				}
-			}
-			disconnect(connection);
-		}
-	}
-	
-	private void disconnect(HttpURLConnection connection) {
-		if (connection != null) 
-			connection.disconnect();		
-	}
-
+package com.suriya.tool;
+
+import java.io.*;
+import java.net.*;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+// This class downloads a file from a URL.
+class HTTPDownload extends SimpleDownload {
+
+	final static Logger log = Logger.getLogger(HTTPDownload.class);
+	private HttpResponse<InputStream> response;
+
+	// Whether the server advertised byte range support.
+	private boolean acceptRanges;
+	
+	public HTTPDownload(URI uri) {
+		super(uri);		
+	}
+
+	public HTTPDownload(URI uri, String localDirectory, RemoteMetadata listed) {
+		super(uri, localDirectory, listed);
+	}
+
+	public HTTPDownload(URI uri, String localDirectory, RemoteMetadata listed, int priority) {
+		super(uri, localDirectory, listed, priority);
+	}
+
+	private void connect(long currerntRange) {
+		try {
+			log.info("url:"+getUrl());
+			// Specify what portion of file to download.
+			response = HttpEngine.getInstance().get(uri(), currerntRange, -1);
+		} catch (IOException e) {
+			log.error("Error when trying to make HTTP connection: "+e.getMessage());
+			error();
+		}
+	}
+	
+	/*
+	 * Ask the server for the file's validators and range support without
+	 * transferring the body. A server that refuses HEAD is asked for the first
+	 * byte instead. Returns null if the request failed.
+	 */
+	private RemoteMetadata head() {
+		try {
+			HttpResponse<Void> headResponse = HttpEngine.getInstance().head(uri());
+
+			// Make sure response code is in the 200 range.
+			if (headResponse.statusCode() / 100 != 2) {
+				log.info("HEAD request for " + getUrl() + " got response code:" + headResponse.statusCode()
+						+ ", asking for the first byte");
+				return firstByte();
+			}
+
+			HttpHeaders headers = headResponse.headers();
+			acceptRanges = "bytes".equalsIgnoreCase(headers.firstValue("Accept-Ranges").orElse(null));
+			RemoteMetadata remote = metadata(headers, headers.firstValueAsLong("Content-Length").orElse(-1L));
+			remote.setMd5(headers.firstValue("Content-MD5").orElse(null));
+			return remote;
+		} catch (IOException e) {
+			log.error("Error when trying to make HTTP connection: " + e.getMessage());
+			error();
+			return null;
+		}
+	}
+
+	/*
+	 * Get the headers with a Range: bytes=0-0 request. A 206 gives the size in
+	 * Content-Range and shows ranges work, a 200 gives the whole file's
+	 * Content-Length and its body is dropped unread.
+	 */
+	private RemoteMetadata firstByte() throws IOException {
+		HttpResponse<InputStream> rangeResponse = HttpEngine.getInstance().get(uri(), 0L, 0L);
+		rangeResponse.body().close();
+		HttpHeaders headers = rangeResponse.headers();
+		if (rangeResponse.statusCode() == 206) {
+			acceptRanges = true;
+			return metadata(headers, rangeTotal(headers));
+		}
+		if (rangeResponse.statusCode() / 100 != 2) {
+			log.error("Request for " + getUrl() + " failed with response code:" + rangeResponse.statusCode());
+			error();
+			return null;
+		}
+		acceptRanges = false;
+		RemoteMetadata remote = metadata(headers, headers.firstValueAsLong("Content-Length").orElse(-1L));
+		remote.setMd5(headers.firstValue("Content-MD5").orElse(null));
+		return remote;
+	}
+
+	// The validators of a response, for a file of the given size.
+	private RemoteMetadata metadata(HttpHeaders headers, long size) {
+		long lastModified = 0L;
+		if (headers.firstValue("Last-Modified").isPresent()) {
+			try {
+				lastModified = ZonedDateTime.parse(headers.firstValue("Last-Modified").get(),
+						DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+			} catch (DateTimeParseException e) {
+				log.debug("Ignoring invalid Last-Modified: " + headers.firstValue("Last-Modified").get());
+			}
+		}
+		RemoteMetadata remote = new RemoteMetadata(size, lastModified);
+		remote.setEtag(headers.firstValue("ETag").orElse(null));
+		return remote;
+	}
+
+	// Download file.
+	public void run() {
+		InputStream stream = null;
+		String errorMsg = "";
+
+		try {
+			String fileName = getFileName(uri);
+			String directoryName = getDownloadPath();			
+			createDownloadPath(directoryName);
+			
+			metrics.connecting();
+			RemoteMetadata remote = head();
+			if (remote == null)
+				return;
+			metrics.connected();
+
+			// Check for valid content length.
+			long contentLength = remote.getSize();
+			log.info("File:" + fileName + ", size:" + contentLength);
+			if (contentLength < 1) {
+				error();
+				return;
+			}
+
+			File currentLocalFile = new File(directoryName, fileName);
+			if (skipIfUpToDate(currentLocalFile, remote))
+				return;
+
+			// Find where to resume, from the journal if the last run left one.
+			long offset = openJournal(currentLocalFile, remote, acceptRanges);
+			
+			/*
+			 * Set the size for this download if it hasn't been already set.
+			 */
+			if (size == -1) {
+				size = contentLength;
+				stateChanged();
+			}
+			
+			boolean isDiskSpaceEnough = checkDiskFreeSpaceForFile(getFreeDiskSpace(), contentLength - offset);
+			if (!isDiskSpaceEnough) {
+				errorMsg = "The free disk space size(" + FileUtils.byteCountToDisplaySize(getFreeDiskSpace())
+						+ ") is less than download " + "file size(" + FileUtils.byteCountToDisplaySize(contentLength)
+						+ "). Download can not be done.";
+				log.error(errorMsg);
+				reportError(errorMsg);
+				error();
+				return;
+			}
+
+			String filePath = directoryName + File.separator + fileName;
+			if (acceptRanges)
+				planSegments(offset, getSegmentCount());
+
+			if (segments != null) {
+				log.info("Downloading the file:" + fileName + " in " + segments.size() + " segments");
+				preallocate(currentLocalFile, size);
+				metrics.transferring();
+				// A repair or journal resume can leave many small ranges, so the connections stay capped.
+				downloadSegments(filePath, Math.min(segments.size(), Math.max(1, getSegmentCount())));
+
+				// Segments arrive out of order, so the finished file is hashed once.
+				if (status == DOWNLOADING)
+					startDigest(currentLocalFile, size);
+			} else {
+				// Count from the offset, even 0, as a failed run may have counted bytes past it.
+				if (downloaded != offset) {
+					downloaded = offset;
+					stateChanged();
+				}
+
+				preallocate(currentLocalFile, size);
+				startDigest(currentLocalFile, downloaded);
+
+				metrics.transferring();
+				connect(downloaded);
+				if (response == null)
+					return;
+
+				// Make sure response code is in the 200 range.
+				stream = response.body();
+				if (response.statusCode() / 100 != 2) {
+					error();
+					return;
+				}
+
+				// A resumed stream must start where the file left off.
+				if (downloaded > 0) {
+					if (response.statusCode() == HttpURLConnection.HTTP_OK) {
+						restartFromStart(currentLocalFile);
+					} else if (response.statusCode() != HttpURLConnection.HTTP_PARTIAL
+							|| rangeStart(response.headers()) != downloaded) {
+						log.error("Resuming " + getUrl() + " at " + downloaded + " got response code:"
+								+ response.statusCode() + ", Content-Range:"
+								+ response.headers().firstValue("Content-Range").orElse(null));
+						error();
+						return;
+					}
+				}
+
+				try {
+					copyStream(stream, currentLocalFile);
+				} finally {
+					savePartial(currentLocalFile);
+				}
+			}
+
+			/*
+			 * Change status to complete if this point was reached because
+			 * downloading has finished.
+			 */
+			if (status == DOWNLOADING)
+				completeDownload(currentLocalFile, remote);
+			log.info("Finish downloading the file: " + directoryName + File.separator + fileName);
+			log.info("HTTP connections: " + HttpEngine.getInstance().getStats());
+		} catch (Exception e) {
+			error();
+		} finally {
+			closeJournal();
+			// Close connection to server.
+			if (stream != null) {
+				try {
+					stream.close();
+				} catch (Exception e) {
+				}
+			}
+			response = null;
+		}
+	}
+	
+	// Get the first byte of a Content-Range header such as "bytes 100-199/1000", or -1.
+	private static long rangeStart(HttpHeaders headers) {
+		String range = headers.firstValue("Content-Range").orElse(null);
+		if (range == null || !range.startsWith("bytes "))
+			return -1L;
+		int dash = range.indexOf('-');
+		try {
+			return (dash > 6) ? Long.parseLong(range.substring(6, dash).trim()) : -1L;
+		} catch (NumberFormatException e) {
+			return -1L;
+		}
+	}
+
+	// The full length from a "bytes N-M/total" Content-Range, or -1 if not given.
+	private static long rangeTotal(HttpHeaders headers) {
+		String range = headers.firstValue("Content-Range").orElse(null);
+		if (range == null || !range.startsWith("bytes "))
+			return -1L;
+		try {
+			return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+		} catch (NumberFormatException e) {
+			return -1L; // "*" or garbled
+		}
+	}
+
+	// Download one byte range into place over its own connection.
+	@Override
+	protected void downloadSegment(String filePath, Segment segment) throws IOException {
+		InputStream segmentStream = null;
+		try {
+			HttpResponse<InputStream> segmentResponse = HttpEngine.getInstance().getSegment(uri(),
+					segment.getPosition(), segment.getEnd());
+			segmentStream = segmentResponse.body();
+			if (segmentResponse.statusCode() != HttpURLConnection.HTTP_PARTIAL) {
+				throw new IOException("Range request refused for " + segment + ", response code:"
+						+ segmentResponse.statusCode());
+			}
+			copySegment(segmentStream, filePath, segment);
+		} finally {
+			if (segmentStream != null) {
+				try {
+					segmentStream.close();
+				} catch (Exception e) {
+				}
+			}
+		}
+	}
+
+	private URI uri() throws IOException {
+		try {
+			return new URI(getUrl());
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid URL: " + getUrl(), e);
+		}
+	}
+
 }
\ No newline at end of file
@@ -0,0 +1,330 @@
+package com.suriya.tool;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+
+/*
+ * This class holds a hash of every fixed-size chunk of a file and the root of
+ * the hash tree over them. A download records one as its chunks are written
+ * and saves it next to the file, in the .manifests directory. A manifest of
+ * the same file given by someone else can then tell exactly which byte ranges
+ * of the local copy are wrong, so only those are fetched again.
+ *
+ * Each leaf hashes one chunk as it is on disk. Each node above hashes its two
+ * children's hashes together, and an odd node is carried up as is.
+ *
+ * The file format is text, so a manifest can be made and read by other tools:
+ *
+ *   size <bytes>
+ *   chunk <bytes>
+ *   algorithm <algorithm, see HashService>
+ *   root <hex>
+ *   <hex of chunk 0>
+ *   ...
+ *
+ * Settings in config.properties:
+ *   MANIFEST.CHUNK.SIZE   bytes covered by one leaf (default 4194304)
+ *   MANIFEST.ALGORITHM    SHA-256 (default), CRC32C, XXH64 or another MessageDigest algorithm
+ */
+class HashManifest {
+
+	final static Logger log = Logger.getLogger(HashManifest.class);
+
+	public static final String MANIFEST_DIRECTORY_NAME = ".manifests";
+	public static final String MANIFEST_SUFFIX = ".manifest";
+	public static final String DEFAULT_ALGORITHM = HashService.SHA256;
+	public static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+
+	private final long size;
+	private final int chunkSize;
+	private final String algorithm;
+	private final int chunkCount;
+	private final byte[][] hashes; // null for a chunk not hashed yet
+	private final int[] filled; // bytes written in each chunk during this run
+
+	private FileChannel file;
+
+	HashManifest(long size, int chunkSize, String algorithm) {
+		this.size = size;
+		this.chunkSize = chunkSize;
+		this.algorithm = algorithm;
+		this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+		this.hashes = new byte[chunkCount][];
+		this.filled = new int[chunkCount];
+	}
+
+	// Start a manifest for a download of the given size, with the configured chunk size.
+	public static HashManifest forSize(long size) {
+		Properties config = SimpleDownload.loadConfig();
+		return new HashManifest(size, getChunkSize(config),
+				config.getProperty("MANIFEST.ALGORITHM", DEFAULT_ALGORITHM).trim());
+	}
+
+	// Get MANIFEST.CHUNK.SIZE, or the default if it is not a positive number.
+	private static int getChunkSize(Properties config) {
+		String value = config.getProperty("MANIFEST.CHUNK.SIZE");
+		if (value == null || value.trim().length() == 0)
+			return DEFAULT_CHUNK_SIZE;
+		int chunkSize;
+		try {
+			chunkSize = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			chunkSize = 0;
+		}
+		if (chunkSize > 0)
+			return chunkSize;
+		log.error("Invalid value for MANIFEST.CHUNK.SIZE: " + value);
+		return DEFAULT_CHUNK_SIZE;
+	}
+
+	// Start an empty manifest laid out like another, so the two can be compared.
+	public static HashManifest like(HashManifest other) {
+		return new HashManifest(other.size, other.chunkSize, other.algorithm);
+	}
+
+	// Get the file holding the recorded manifest of a downloaded file.
+	public static File fileFor(File target) {
+		return new File(new File(target.getParentFile(), MANIFEST_DIRECTORY_NAME), target.getName() + MANIFEST_SUFFIX);
+	}
+
+	// Delete the recorded manifest of a file, if there is one.
+	public static void delete(File target) {
+		File manifestFile = fileFor(target);
+		if (manifestFile.exists() && !manifestFile.delete())
+			log.error("Not able to delete the manifest " + manifestFile);
+	}
+
+	// Read a manifest file.
+	public static HashManifest load(File manifestFile) throws IOException {
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+		try {
+			long size = Long.parseLong(field(reader, "size"));
+			int chunkSize = Integer.parseInt(field(reader, "chunk"));
+			String algorithm = field(reader, "algorithm");
+			byte[] root = Hex.decodeHex(field(reader, "root").toCharArray());
+			if (chunkSize <= 0)
+				throw new IOException("Invalid chunk size: " + chunkSize);
+			if (!HashService.isSupported(algorithm))
+				throw new IOException("Unsupported algorithm: " + algorithm);
+
+			HashManifest loaded = new HashManifest(size, chunkSize, algorithm);
+			for (int chunk = 0; chunk < loaded.chunkCount; chunk++) {
+				String line = reader.readLine();
+				if (line == null)
+					throw new IOException("Only " + chunk + " of " + loaded.chunkCount + " chunk hashes");
+				loaded.hashes[chunk] = Hex.decodeHex(line.trim().toCharArray());
+			}
+			if (!Arrays.equals(root, loaded.getRoot()))
+				throw new IOException("The root does not match the chunk hashes");
+			return loaded;
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid manifest " + manifestFile + ": " + e.getMessage(), e);
+		} catch (DecoderException e) {
+			throw new IOException("Invalid manifest " + manifestFile + ": " + e.getMessage(), e);
+		} finally {
+			reader.close();
+		}
+	}
+
+	// Read the value of the next "name value" line.
+	private static String field(BufferedReader reader, String name) throws IOException {
+		String line = reader.readLine();
+		if (line == null || !line.startsWith(name + " "))
+			throw new IOException("Expected the manifest field " + name);
+		return line.substring(name.length() + 1).trim();
+	}
+
+	// Write the manifest, once every chunk is hashed.
+	public synchronized void save(File manifestFile) throws IOException {
+		manifestFile.getParentFile().mkdirs();
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), "UTF-8"));
+		try {
+			writer.write("size " + size + "\n");
+			writer.write("chunk " + chunkSize + "\n");
+			writer.write("algorithm " + algorithm + "\n");
+			writer.write("root " + Hex.encodeHexString(getRoot()) + "\n");
+			for (byte[] hash : hashes)
+				writer.write(Hex.encodeHexString(hash) + "\n");
+		} finally {
+			writer.close();
+		}
+	}
+
+	// Open the target file to hash chunks as they are written.
+	public synchronized void open(File target) throws IOException {
+		file = new RandomAccessFile(target, "r").getChannel();
+	}
+
+	public synchronized void close() {
+		try {
+			if (file != null)
+				file.close();
+		} catch (IOException e) {
+		}
+		file = null;
+	}
+
+	/*
+	 * Record that length bytes were written at position. A chunk is read back
+	 * and hashed once all of its bytes were written during this run.
+	 */
+	public void written(long position, long length) throws IOException {
+		List<Integer> finished = new ArrayList<Integer>();
+		synchronized (this) {
+			long end = position + length;
+			while (position < end) {
+				int chunk = (int) (position / chunkSize);
+				int count = (int) (Math.min(end, getChunkEnd(chunk)) - position);
+				filled[chunk] += count;
+				if (hashes[chunk] == null && filled[chunk] >= getChunkEnd(chunk) - (long) chunk * chunkSize)
+					finished.add(chunk);
+				position += count;
+			}
+		}
+		// Segments finish different chunks, so they hash in parallel.
+		for (int chunk : finished)
+			hash(chunk);
+	}
+
+	// Hash every chunk not hashed yet, such as those written before a resume, in parallel.
+	public void hashMissing() throws IOException {
+		FileChannel channel = getChannel();
+		List<Integer> missing = new ArrayList<Integer>();
+		byte[][] missingHashes = new byte[chunkCount][];
+		synchronized (this) {
+			for (int chunk = 0; chunk < chunkCount; chunk++) {
+				if (hashes[chunk] == null)
+					missing.add(chunk);
+			}
+		}
+		HashService.hashChunks(channel, size, chunkSize, missing, algorithm, missingHashes);
+		synchronized (this) {
+			for (int chunk : missing)
+				hashes[chunk] = missingHashes[chunk];
+		}
+	}
+
+	private synchronized FileChannel getChannel() throws IOException {
+		if (file == null)
+			throw new IOException("The manifest is not open");
+		return file;
+	}
+
+	// Drop the hashes of the chunks overlapping a byte range about to be written again.
+	public synchronized void forget(long position, long length) {
+		if (length <= 0)
+			return;
+		int last = (int) Math.min((position + length - 1) / chunkSize, chunkCount - 1);
+		for (int chunk = (int) (position / chunkSize); chunk <= last; chunk++) {
+			hashes[chunk] = null;
+			filled[chunk] = 0;
+		}
+	}
+
+	private void hash(int chunk) throws IOException {
+		FileChannel channel = getChannel();
+		long position = (long) chunk * chunkSize;
+		byte[] hash = HashService.hashRange(channel, position, getChunkEnd(chunk) - position, algorithm);
+		synchronized (this) {
+			hashes[chunk] = hash;
+		}
+	}
+
+	/*
+	 * Get a segment for each run of chunks whose hash differs from the
+	 * expected manifest's. Both manifests must have the same layout.
+	 */
+	public synchronized List<Segment> mismatches(HashManifest expected) throws IOException {
+		if (!hasLayoutOf(expected))
+			throw new IOException("The manifest is for a different file or layout: size " + expected.size + ", chunk "
+					+ expected.chunkSize + ", " + expected.algorithm);
+
+		List<Segment> mismatched = new ArrayList<Segment>();
+		if (Arrays.equals(getRoot(), expected.getRoot()))
+			return mismatched;
+		int chunk = 0;
+		while (chunk < chunkCount) {
+			if (Arrays.equals(hashes[chunk], expected.getHash(chunk))) {
+				chunk++;
+				continue;
+			}
+			int first = chunk;
+			while (chunk < chunkCount && !Arrays.equals(hashes[chunk], expected.getHash(chunk)))
+				chunk++;
+			mismatched.add(new Segment(mismatched.size(), (long) first * chunkSize, getChunkEnd(chunk - 1) - 1));
+		}
+		return mismatched;
+	}
+
+	// Whether another manifest covers the same size with the same chunks and algorithm.
+	public boolean hasLayoutOf(HashManifest other) {
+		return size == other.size && chunkSize == other.chunkSize && algorithm.equals(other.algorithm);
+	}
+
+	// Get the root of the hash tree, hashing pairs of nodes level by level.
+	public synchronized byte[] getRoot() {
+		HashService.Hasher hasher;
+		try {
+			hasher = HashService.newHasher(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		if (chunkCount == 0)
+			return hasher.digest();
+
+		byte[][] level = hashes.clone();
+		int count = chunkCount;
+		while (count > 1) {
+			int parents = 0;
+			for (int i = 0; i < count; i += 2) {
+				if (i + 1 == count) {
+					level[parents++] = level[i];
+				} else {
+					hasher.update(level[i], 0, level[i].length);
+					hasher.update(level[i + 1], 0, level[i + 1].length);
+					level[parents++] = hasher.digest();
+				}
+			}
+			count = parents;
+		}
+		return level[0];
+	}
+
+	public synchronized byte[] getHash(int chunk) {
+		return hashes[chunk];
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	public String getAlgorithm() {
+		return algorithm;
+	}
+
+	// Get the position just after the last byte of a chunk.
+	private long getChunkEnd(int chunk) {
+		return Math.min((long) (chunk + 1) * chunkSize, size);
+	}
+}
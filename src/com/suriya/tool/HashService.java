@@ -0,0 +1,315 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/*
+ * This class hashes local files for the integrity checks. Besides the
+ * MessageDigest algorithms, which keep MD5 for matching a server's
+ * Content-MD5 and SHA-256 (using the CPU's SHA instructions where the JVM
+ * has them), it offers two much cheaper hashes for manifests made and checked
+ * by this program:
+ *
+ *   CRC32C  hardware CRC, java.util.zip.CRC32C
+ *   XXH64   xxHash64 with seed 0, in its canonical big-endian form
+ *
+ * Chunks of a file are hashed in parallel on a fork-join pool of HASH.THREADS
+ * threads (default: one per processor). A whole-file MD5 can not be split, so
+ * it is only computed when a server's MD5 has to be matched.
+ */
+final class HashService {
+
+	public static final String MD5 = "MD5";
+	public static final String SHA256 = "SHA-256";
+	public static final String CRC32C = "CRC32C";
+	public static final String XXH64 = "XXH64";
+
+	// Size of each read when hashing a chunk.
+	public static final int READ_SIZE = 64 * 1024;
+
+	private static ForkJoinPool pool = null;
+
+	private HashService() {
+	}
+
+	// One running hash, fed bytes in order.
+	interface Hasher {
+		void update(byte[] buffer, int offset, int length);
+
+		// Get the hash of everything fed so far and start over.
+		byte[] digest();
+	}
+
+	// Get a new hasher for an algorithm: a name above or any MessageDigest algorithm.
+	public static Hasher newHasher(String algorithm) throws NoSuchAlgorithmException {
+		if (algorithm.equalsIgnoreCase(CRC32C))
+			return new ChecksumHasher(new CRC32C());
+		if (algorithm.equalsIgnoreCase(XXH64))
+			return new Xxh64Hasher();
+		return new DigestHasher(MessageDigest.getInstance(algorithm));
+	}
+
+	public static boolean isSupported(String algorithm) {
+		try {
+			newHasher(algorithm);
+			return true;
+		} catch (NoSuchAlgorithmException e) {
+			return false;
+		}
+	}
+
+	// Get the pool that hashes chunks, created on first use.
+	static synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			int threads = Integer.parseInt(SimpleDownload.loadConfig()
+					.getProperty("HASH.THREADS", Integer.toString(Runtime.getRuntime().availableProcessors())).trim());
+			pool = new ForkJoinPool(Math.max(1, threads));
+		}
+		return pool;
+	}
+
+	// Hash length bytes of a file from position on.
+	public static byte[] hashRange(FileChannel file, long position, long length, String algorithm) throws IOException {
+		Hasher hasher;
+		try {
+			hasher = newHasher(algorithm);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(e);
+		}
+		byte[] buffer = BufferPool.acquire(READ_SIZE);
+		try {
+			long end = position + length;
+			while (position < end) {
+				ByteBuffer target = ByteBuffer.wrap(buffer, 0, (int) Math.min(buffer.length, end - position));
+				int read = file.read(target, position);
+				if (read == -1)
+					throw new IOException("The file ends at " + position + ", before " + end);
+				hasher.update(buffer, 0, read);
+				position += read;
+			}
+		} finally {
+			BufferPool.release(buffer);
+		}
+		return hasher.digest();
+	}
+
+	/*
+	 * Hash the given chunks of a file in parallel, storing each chunk's hash
+	 * at its index in hashes.
+	 */
+	public static void hashChunks(FileChannel file, long size, int chunkSize, List<Integer> chunks, String algorithm,
+			byte[][] hashes) throws IOException {
+		ChunkTask task = new ChunkTask(file, size, chunkSize, chunks, algorithm, hashes);
+		getPool().invoke(task);
+		if (task.failure != null)
+			throw task.failure;
+	}
+
+	// Hashes a list of chunks, splitting it in halves until one chunk is left.
+	private static class ChunkTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		private final FileChannel file;
+		private final long size;
+		private final int chunkSize;
+		private final List<Integer> chunks;
+		private final String algorithm;
+		private final byte[][] hashes;
+		private volatile IOException failure = null;
+
+		ChunkTask(FileChannel file, long size, int chunkSize, List<Integer> chunks, String algorithm, byte[][] hashes) {
+			this.file = file;
+			this.size = size;
+			this.chunkSize = chunkSize;
+			this.chunks = chunks;
+			this.algorithm = algorithm;
+			this.hashes = hashes;
+		}
+
+		protected void compute() {
+			if (chunks.size() > 1) {
+				int half = chunks.size() / 2;
+				ChunkTask first = new ChunkTask(file, size, chunkSize, chunks.subList(0, half), algorithm, hashes);
+				ChunkTask second = new ChunkTask(file, size, chunkSize, chunks.subList(half, chunks.size()), algorithm,
+						hashes);
+				invokeAll(first, second);
+				failure = (first.failure != null) ? first.failure : second.failure;
+				return;
+			}
+			for (int chunk : chunks) {
+				long position = (long) chunk * chunkSize;
+				try {
+					hashes[chunk] = hashRange(file, position, Math.min(chunkSize, size - position), algorithm);
+				} catch (IOException e) {
+					failure = e;
+				}
+			}
+		}
+	}
+
+	private static class DigestHasher implements Hasher {
+		private final MessageDigest digest;
+
+		DigestHasher(MessageDigest digest) {
+			this.digest = digest;
+		}
+
+		public void update(byte[] buffer, int offset, int length) {
+			digest.update(buffer, offset, length);
+		}
+
+		public byte[] digest() {
+			return digest.digest();
+		}
+	}
+
+	// A 32-bit checksum, as four big-endian bytes.
+	private static class ChecksumHasher implements Hasher {
+		private final Checksum checksum;
+
+		ChecksumHasher(Checksum checksum) {
+			this.checksum = checksum;
+		}
+
+		public void update(byte[] buffer, int offset, int length) {
+			checksum.update(buffer, offset, length);
+		}
+
+		public byte[] digest() {
+			byte[] value = ByteBuffer.allocate(4).putInt((int) checksum.getValue()).array();
+			checksum.reset();
+			return value;
+		}
+	}
+
+	// Streaming xxHash64 with seed 0.
+	private static class Xxh64Hasher implements Hasher {
+		private static final long PRIME1 = 0x9E3779B185EBCA87L;
+		private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+		private static final long PRIME3 = 0x165667B19E3779F9L;
+		private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+		private static final long PRIME5 = 0x27D4EB2F165667C5L;
+
+		// xxHash reads its input as little-endian words.
+		private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class,
+				ByteOrder.LITTLE_ENDIAN);
+		private static final VarHandle INT_VIEW = MethodHandles.byteArrayViewVarHandle(int[].class,
+				ByteOrder.LITTLE_ENDIAN);
+
+		private long v1, v2, v3, v4;
+		private long total;
+		private final byte[] pending = new byte[32]; // bytes short of a full stripe
+		private int pendingLength;
+
+		Xxh64Hasher() {
+			reset();
+		}
+
+		private void reset() {
+			v1 = PRIME1 + PRIME2;
+			v2 = PRIME2;
+			v3 = 0L;
+			v4 = -PRIME1;
+			total = 0L;
+			pendingLength = 0;
+		}
+
+		public void update(byte[] buffer, int offset, int length) {
+			total += length;
+			int end = offset + length;
+			if (pendingLength > 0) {
+				int taken = Math.min(32 - pendingLength, length);
+				System.arraycopy(buffer, offset, pending, pendingLength, taken);
+				pendingLength += taken;
+				offset += taken;
+				if (pendingLength < 32)
+					return;
+				stripe(pending, 0);
+				pendingLength = 0;
+			}
+			while (offset + 32 <= end) {
+				stripe(buffer, offset);
+				offset += 32;
+			}
+			pendingLength = end - offset;
+			System.arraycopy(buffer, offset, pending, 0, pendingLength);
+		}
+
+		private void stripe(byte[] buffer, int offset) {
+			v1 = round(v1, readLong(buffer, offset));
+			v2 = round(v2, readLong(buffer, offset + 8));
+			v3 = round(v3, readLong(buffer, offset + 16));
+			v4 = round(v4, readLong(buffer, offset + 24));
+		}
+
+		public byte[] digest() {
+			long hash;
+			if (total >= 32) {
+				hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12)
+						+ Long.rotateLeft(v4, 18);
+				hash = merge(hash, v1);
+				hash = merge(hash, v2);
+				hash = merge(hash, v3);
+				hash = merge(hash, v4);
+			} else {
+				hash = PRIME5;
+			}
+			hash += total;
+
+			int offset = 0;
+			while (offset + 8 <= pendingLength) {
+				hash ^= round(0L, readLong(pending, offset));
+				hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+				offset += 8;
+			}
+			if (offset + 4 <= pendingLength) {
+				hash ^= (readInt(pending, offset) & 0xFFFFFFFFL) * PRIME1;
+				hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+				offset += 4;
+			}
+			while (offset < pendingLength) {
+				hash ^= (pending[offset] & 0xFFL) * PRIME5;
+				hash = Long.rotateLeft(hash, 11) * PRIME1;
+				offset++;
+			}
+
+			hash ^= hash >>> 33;
+			hash *= PRIME2;
+			hash ^= hash >>> 29;
+			hash *= PRIME3;
+			hash ^= hash >>> 32;
+			reset();
+			return ByteBuffer.allocate(8).putLong(hash).array();
+		}
+
+		private static long round(long accumulator, long input) {
+			accumulator += input * PRIME2;
+			accumulator = Long.rotateLeft(accumulator, 31);
+			return accumulator * PRIME1;
+		}
+
+		private static long merge(long hash, long accumulator) {
+			hash ^= round(0L, accumulator);
+			return hash * PRIME1 + PRIME4;
+		}
+
+		private static long readLong(byte[] buffer, int offset) {
+			return (long) LONG_VIEW.get(buffer, offset);
+		}
+
+		private static int readInt(byte[] buffer, int offset) {
+			return (int) INT_VIEW.get(buffer, offset);
+		}
+	}
+}
@@ -0,0 +1,120 @@
+package com.suriya.tool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * This class counts non-negative values in power-of-two buckets: bucket 0
+ * holds 0 and bucket i the values from 2^(i-1) to 2^i - 1. Adding a value
+ * takes a few atomic updates and no lock, so any thread can add to it.
+ * Percentiles are read as the upper bound of their bucket, which is within a
+ * factor of two of the true value.
+ */
+class Histogram {
+
+	private static final int BUCKETS = 64;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void add(long value) {
+		if (value < 0)
+			return;
+		counts.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value))
+			current = max.get();
+	}
+
+	// Get the largest value a bucket holds.
+	private static long upperBound(int bucket) {
+		return (bucket == 0) ? 0L : (1L << bucket) - 1;
+	}
+
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		int used = 0;
+		long count = 0L;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+			if (copy[i] > 0)
+				used = i + 1;
+		}
+
+		Snapshot snapshot = new Snapshot();
+		snapshot.count = count;
+		snapshot.max = max.get();
+		snapshot.mean = (count == 0) ? 0.0 : (double) sum.sum() / count;
+		snapshot.p50 = percentile(copy, count, snapshot.max, 0.50);
+		snapshot.p90 = percentile(copy, count, snapshot.max, 0.90);
+		snapshot.p99 = percentile(copy, count, snapshot.max, 0.99);
+		snapshot.upperBounds = new long[used];
+		snapshot.counts = new long[used];
+		for (int i = 0; i < used; i++) {
+			snapshot.upperBounds[i] = upperBound(i);
+			snapshot.counts[i] = copy[i];
+		}
+		return snapshot;
+	}
+
+	private static long percentile(long[] counts, long count, long max, double fraction) {
+		if (count == 0)
+			return 0L;
+		long rank = (long) Math.ceil(fraction * count);
+		long seen = 0L;
+		for (int i = 0; i < counts.length; i++) {
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(upperBound(i), max);
+		}
+		return max;
+	}
+
+	// The histogram at one moment, shown by JMX consoles as a composite value.
+	public static class Snapshot {
+		private long count;
+		private double mean;
+		private long max;
+		private long p50;
+		private long p90;
+		private long p99;
+		private long[] upperBounds; // largest value of each bucket, up to the last one used
+		private long[] counts;
+
+		public long getCount() {
+			return count;
+		}
+
+		public double getMean() {
+			return mean;
+		}
+
+		public long getMax() {
+			return max;
+		}
+
+		public long getP50() {
+			return p50;
+		}
+
+		public long getP90() {
+			return p90;
+		}
+
+		public long getP99() {
+			return p99;
+		}
+
+		public long[] getUpperBounds() {
+			return upperBounds;
+		}
+
+		public long[] getCounts() {
+			return counts;
+		}
+	}
+}
@@ -0,0 +1,192 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class sends every HTTP request through shared HttpClients, so
+ * connections stay open per host between requests and downloads, and HTTP/2
+ * servers multiplex all requests over one connection. Segments of one file
+ * go through a separate HTTP/1.1 client instead, so that each runs on its own
+ * TCP connection.
+ *
+ * Settings in config.properties:
+ *   HTTP.VERSION           HTTP_2 (default) or HTTP_1_1
+ *   HTTP.CONNECT.TIMEOUT   connect timeout in milliseconds (default 30000)
+ *   HTTP.POOL.SIZE         idle HTTP/1.1 connections kept open (0 = no limit)
+ *   HTTP.KEEPALIVE.TIMEOUT seconds an idle connection is kept open
+ *   HTTP.RECEIVE.BUFFER.SIZE socket receive buffer of every connection (default: system default)
+ */
+class HttpEngine {
+
+	final static Logger log = Logger.getLogger(HttpEngine.class);
+
+	// Most connections remembered when counting reuse.
+	private static final int MAX_TRACKED_CONNECTIONS = 10000;
+
+	private static HttpEngine instance = null;
+
+	private final HttpClient client;
+	private final HttpClient segmentClient;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong http2Requests = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+
+	// Labels of connections already seen, null when the JVM does not report them.
+	private final Set<String> seenConnections;
+	private final Method connectionLabel;
+
+	HttpEngine(Properties config) {
+		// The JDK reads its pool settings once, when the first client is built.
+		if (config.getProperty("HTTP.POOL.SIZE") != null)
+			System.setProperty("jdk.httpclient.connectionPoolSize", config.getProperty("HTTP.POOL.SIZE").trim());
+		if (config.getProperty("HTTP.KEEPALIVE.TIMEOUT") != null)
+			System.setProperty("jdk.httpclient.keepalive.timeout", config.getProperty("HTTP.KEEPALIVE.TIMEOUT").trim());
+		if (config.getProperty("HTTP.RECEIVE.BUFFER.SIZE") != null)
+			System.setProperty("jdk.httpclient.receiveBufferSize", config.getProperty("HTTP.RECEIVE.BUFFER.SIZE").trim());
+
+		HttpClient.Version version = HttpClient.Version.valueOf(config.getProperty("HTTP.VERSION", "HTTP_2").trim());
+		long connectTimeout = Long.parseLong(config.getProperty("HTTP.CONNECT.TIMEOUT", "30000").trim());
+		client = HttpClient.newBuilder()
+				.version(version)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(connectTimeout))
+				.build();
+		segmentClient = HttpClient.newBuilder()
+				.version(HttpClient.Version.HTTP_1_1)
+				.followRedirects(HttpClient.Redirect.NORMAL)
+				.connectTimeout(Duration.ofMillis(connectTimeout))
+				.build();
+
+		/* HttpResponse.connectionLabel() is missing from Java 11 and 17, and the
+		   client takes no socket factory to count connections with, so reuse is
+		   only counted on newer releases that have it. */
+		Method label = null;
+		try {
+			label = HttpResponse.class.getMethod("connectionLabel");
+		} catch (NoSuchMethodException e) {
+			log.info("Connection labels are not available on this Java release, HTTP connection reuse will not be counted");
+		}
+		connectionLabel = label;
+		seenConnections = (label == null) ? null
+				: Collections.newSetFromMap(new LinkedHashMap<String, Boolean>() {
+					protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+						return size() > MAX_TRACKED_CONNECTIONS;
+					}
+				});
+	}
+
+	public static synchronized HttpEngine getInstance() {
+		if (instance == null)
+			instance = new HttpEngine(SimpleDownload.loadConfig());
+		return instance;
+	}
+
+	// Ask for the headers of a resource without its body.
+	public HttpResponse<Void> head(URI uri) throws IOException {
+		HttpRequest request = HttpRequest.newBuilder(uri).method("HEAD", HttpRequest.BodyPublishers.noBody()).build();
+		return send(client, request, HttpResponse.BodyHandlers.discarding());
+	}
+
+	/*
+	 * Get the bytes from start to end, inclusive, or to the end of the resource
+	 * if end is negative. Closing the body stream early drops the connection.
+	 */
+	public HttpResponse<InputStream> get(URI uri, long start, long end) throws IOException {
+		return send(client, range(uri, start, end), HttpResponse.BodyHandlers.ofInputStream());
+	}
+
+	/*
+	 * Get one segment of a file. Concurrent segments are never multiplexed
+	 * onto a shared connection, idle ones are still reused.
+	 */
+	public HttpResponse<InputStream> getSegment(URI uri, long start, long end) throws IOException {
+		return send(segmentClient, range(uri, start, end), HttpResponse.BodyHandlers.ofInputStream());
+	}
+
+	private HttpRequest range(URI uri, long start, long end) {
+		HttpRequest.Builder request = HttpRequest.newBuilder(uri);
+		if (start > 0 || end >= 0)
+			request.header("Range", "bytes=" + start + "-" + ((end >= 0) ? Long.toString(end) : ""));
+		return request.build();
+	}
+
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	public long getHttp2RequestCount() {
+		return http2Requests.get();
+	}
+
+	// Get the number of connections opened, or -1 if the JVM does not report them.
+	public long getConnectionCount() {
+		return (seenConnections == null) ? -1 : connections.get();
+	}
+
+	// Get the share of requests that went over an already open connection, or -1 if unknown.
+	public double getReuseRate() {
+		long total = requests.get();
+		if (seenConnections == null || total == 0)
+			return -1;
+		return 1.0 - (double) connections.get() / total;
+	}
+
+	// Describe the requests sent, leaving out connection reuse when it is not known.
+	public String getStats() {
+		String stats = "requests:" + getRequestCount() + ", http2:" + getHttp2RequestCount();
+		double reuseRate = getReuseRate();
+		if (reuseRate >= 0)
+			stats += ", connections:" + getConnectionCount() + ", reuse:" + Math.round(reuseRate * 100) + "%";
+		return stats;
+	}
+
+	private <T> HttpResponse<T> send(HttpClient client, HttpRequest request, HttpResponse.BodyHandler<T> handler)
+			throws IOException {
+		HttpResponse<T> response;
+		try {
+			response = client.send(request, handler);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for " + request.uri());
+		}
+		count(response);
+		return response;
+	}
+
+	private void count(HttpResponse<?> response) {
+		requests.incrementAndGet();
+		if (response.version() == HttpClient.Version.HTTP_2)
+			http2Requests.incrementAndGet();
+		if (connectionLabel == null)
+			return;
+
+		try {
+			Optional<?> label = (Optional<?>) connectionLabel.invoke(response);
+			if (label.isPresent()) {
+				synchronized (seenConnections) {
+					if (seenConnections.add(label.get().toString()))
+						connections.incrementAndGet();
+				}
+			}
+		} catch (Exception e) {
+			log.debug("Not able to read the connection label: " + e.getMessage());
+		}
+	}
+}
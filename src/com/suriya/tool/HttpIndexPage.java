@@ -0,0 +1,85 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+
+/*
+ * This class lists HTTP directories from their index pages, such as those
+ * generated by Apache or nginx. Every link to a direct child of the page is
+ * an entry, and links ending with a slash are subdirectories. Index pages
+ * carry no reliable sizes or dates, so files are listed without metadata and
+ * each download checks its own validators with HEAD.
+ */
+class HttpIndexPage implements RemoteLister {
+
+	// Largest index page read, anything after it is ignored.
+	public static final int MAX_PAGE_SIZE = 16 * 1024 * 1024;
+
+	private static final Pattern HREF = Pattern.compile("href\\s*=\\s*[\"']([^\"'#?]+)[\"']", Pattern.CASE_INSENSITIVE);
+
+	private final String scheme;
+	private final String host;
+	private final int port;
+
+	HttpIndexPage(String scheme, String host, int port) {
+		this.scheme = scheme;
+		this.host = host;
+		this.port = port;
+	}
+
+	public List<Entry> list(String directory) throws IOException {
+		URI page;
+		try {
+			page = new URI(scheme, null, host, port, "/" + directory, null, null);
+		} catch (URISyntaxException e) {
+			throw new IOException("Invalid directory: " + directory, e);
+		}
+
+		HttpResponse<InputStream> response = HttpEngine.getInstance().get(page, 0, -1);
+		String html;
+		InputStream body = response.body();
+		try {
+			if (response.statusCode() / 100 != 2)
+				throw new IOException("Index page " + page + " failed with response code:" + response.statusCode());
+			html = IOUtils.toString(new BoundedInputStream(body, MAX_PAGE_SIZE), "UTF-8");
+		} finally {
+			body.close();
+		}
+
+		// Pages often link the same child twice, by name and by icon.
+		Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+		Matcher matcher = HREF.matcher(html);
+		while (matcher.find()) {
+			URI link;
+			try {
+				link = page.resolve(matcher.group(1).trim());
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+			if (link.getPath() == null || !host.equalsIgnoreCase(link.getHost()) || link.getPort() != page.getPort()
+					|| !link.getPath().startsWith(page.getPath()))
+				continue;
+
+			String child = link.getPath().substring(page.getPath().length());
+			boolean subdirectory = child.endsWith("/");
+			String name = subdirectory ? child.substring(0, child.length() - 1) : child;
+			if (name.length() == 0 || name.contains("/") || name.equals(".") || name.equals(".."))
+				continue;
+			if (!entries.containsKey(name))
+				entries.put(name, new Entry(name, subdirectory, null));
+		}
+		return new ArrayList<Entry>(entries.values());
+	}
+}
@@ -0,0 +1,39 @@
+package com.suriya.tool;
+
+import java.io.File;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.log4j.Logger;
+
+/*
+ * Compares the server's metadata with the record kept in the download
+ * directory's index when the file was last downloaded. Nothing is read from
+ * the remote file or the local copy.
+ */
+class MetadataFreshnessCheck implements FreshnessCheck {
+
+	final static Logger log = Logger.getLogger(MetadataFreshnessCheck.class);
+
+	public boolean isUpToDate(File localFile, RemoteMetadata remote) {
+		if (!localFile.exists())
+			return false;
+
+		DownloadIndex index = DownloadIndex.forDirectory(localFile.getParentFile());
+		RemoteMetadata recorded = index.get(localFile.getName());
+		log.info("Remote file metadata:" + remote + ", recorded metadata:" + recorded);
+		if (recorded == null || localFile.length() != recorded.getSize())
+			return false;
+
+		// A Content-MD5 from the server can be checked against the recorded digest.
+		String digest = index.getDigest(localFile.getName());
+		if (remote.getMd5() != null && digest != null
+				&& !digest.equalsIgnoreCase(Hex.encodeHexString(Base64.decodeBase64(remote.getMd5()))))
+			return false;
+		return recorded.matches(remote);
+	}
+
+	public void downloaded(File localFile, RemoteMetadata remote, String digest) {
+		DownloadIndex.forDirectory(localFile.getParentFile()).put(localFile.getName(), remote, digest);
+	}
+}
@@ -0,0 +1,210 @@
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class mirrors a remote directory tree into the download directory.
+ * Listing workers walk the tree in parallel, and each listed file is compared
+ * with the download index of its local directory by size and modification
+ * time. Only new or changed files are queued as downloads, so a repeated sync
+ * of a large tree costs little more than its listings.
+ *
+ * A directory URL ends with a slash, followed by the credentials if any:
+ *   ftp://host/pub/,user,pass   sftp://host/data/,user,pass   http://host/pub/
+ *
+ * Settings in config.properties:
+ *   MIRROR.LIST.WORKERS   directories listed at once (default 4)
+ */
+class MirrorJob {
+
+	final static Logger log = Logger.getLogger(MirrorJob.class);
+
+	private final String scheme;
+	private final String host;
+	private final int port;
+	private final String credentials; // ",user,pass" as given after the directory, or ""
+	private final String rootPath; // directory relative to the login directory or web root
+	private final RemoteLister lister;
+	private final int workerCount;
+	private final int priority; // class the downloads are queued in
+
+	private ExecutorService workers;
+	private int pending = 0; // directories submitted and not listed yet
+
+	private final List<SimpleDownload> downloads = new ArrayList<SimpleDownload>();
+	private final AtomicLong directories = new AtomicLong();
+	private final AtomicLong files = new AtomicLong();
+	private final AtomicLong failedDirectories = new AtomicLong();
+
+	MirrorJob(URI root, int priority) {
+		this.priority = priority;
+		String path = root.getPath();
+		if (path == null || path.length() == 0)
+			path = "/";
+		this.scheme = root.getScheme();
+		this.host = root.getHost();
+		this.port = root.getPort();
+		this.rootPath = path.substring(1, path.lastIndexOf('/') + 1);
+		this.credentials = path.substring(path.lastIndexOf('/') + 1);
+
+		String user = null;
+		String pass = null;
+		if (credentials.length() > 0) {
+			String[] temp = credentials.split(",");
+			user = (temp.length > 1) ? temp[1] : null;
+			pass = (temp.length > 2) ? temp[2] : null;
+		}
+		if (scheme.equals("ftp"))
+			lister = new FtpDirectory(host, (port > 0) ? port : 21, user, pass);
+		else if (scheme.equals("sftp"))
+			lister = new SftpDirectory(host, (port > 0) ? port : 22, user, pass);
+		else
+			lister = new HttpIndexPage(scheme, host, port);
+
+		int configured = Integer.parseInt(SimpleDownload.loadConfig().getProperty("MIRROR.LIST.WORKERS", "4").trim());
+		this.workerCount = Math.max(1, configured);
+	}
+
+	// Whether the URI names a directory rather than a file.
+	public static boolean isDirectory(URI uri) {
+		String path = uri.getPath();
+		if (path == null || path.length() == 0)
+			return true;
+		String name = path.substring(path.lastIndexOf('/') + 1);
+		return name.length() == 0 || name.startsWith(",");
+	}
+
+	/*
+	 * Walk the tree and queue a download for every new or changed file.
+	 * Returns once the whole tree is listed, with the downloads queued.
+	 */
+	public List<SimpleDownload> run() throws IOException {
+		long started = System.currentTimeMillis();
+		// The root is listed first so a bad URL or login fails the job.
+		List<RemoteLister.Entry> entries = lister.list(rootPath);
+		directories.incrementAndGet();
+
+		workers = Executors.newFixedThreadPool(workerCount, new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "mirror-lister");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		try {
+			visit(rootPath, entries);
+			synchronized (this) {
+				while (pending > 0)
+					wait();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while listing " + host + "/" + rootPath);
+		} finally {
+			workers.shutdownNow();
+		}
+
+		synchronized (downloads) {
+			log.info("Mirror of " + host + "/" + rootPath + ": " + directories.get() + " directories, " + files.get()
+					+ " files, " + downloads.size() + " queued, " + failedDirectories.get() + " directories failed, in "
+					+ (System.currentTimeMillis() - started) + " ms");
+			return new ArrayList<SimpleDownload>(downloads);
+		}
+	}
+
+	public long getDirectoryCount() {
+		return directories.get();
+	}
+
+	public long getFileCount() {
+		return files.get();
+	}
+
+	public long getFailedDirectoryCount() {
+		return failedDirectories.get();
+	}
+
+	// List a subdirectory on one of the workers.
+	private void submit(final String directory) {
+		synchronized (this) {
+			pending++;
+		}
+		workers.execute(new Runnable() {
+			public void run() {
+				try {
+					visit(directory, lister.list(directory));
+					directories.incrementAndGet();
+				} catch (IOException e) {
+					log.error("Not able to list " + host + "/" + directory + ": " + e.getMessage());
+					failedDirectories.incrementAndGet();
+				} finally {
+					synchronized (MirrorJob.this) {
+						pending--;
+						MirrorJob.this.notifyAll();
+					}
+				}
+			}
+		});
+	}
+
+	// Submit the subdirectories of a listing and queue its new or changed files.
+	private void visit(String directory, List<RemoteLister.Entry> entries) {
+		String localDirectory = (directory.length() == 0) ? null : directory.substring(0, directory.length() - 1);
+		File local = new File(SimpleDownload.getDownloadPath(host, localDirectory));
+		// Held only while comparing, so it is not left cached when nothing is queued.
+		DownloadIndex index = DownloadIndex.acquire(local);
+		try {
+			for (RemoteLister.Entry entry : entries) {
+				if (entry.directory) {
+					submit(directory + entry.name + "/");
+				} else if (!entry.name.equals(DownloadIndex.INDEX_FILE_NAME)) {
+					files.incrementAndGet();
+					if (isChanged(index, new File(local, entry.name), entry))
+						queue(directory, localDirectory, entry);
+				}
+			}
+		} finally {
+			DownloadIndex.release(index);
+		}
+	}
+
+	/*
+	 * Whether a listed file is missing locally or differs from the copy
+	 * recorded in the index. Files listed without metadata are always queued,
+	 * and their downloads check for themselves.
+	 */
+	private boolean isChanged(DownloadIndex index, File localFile, RemoteLister.Entry entry) {
+		if (entry.metadata == null)
+			return true;
+		RemoteMetadata recorded = index.get(entry.name);
+		if (recorded == null || !localFile.isFile() || localFile.length() != entry.metadata.getSize())
+			return true;
+		return recorded.getSize() != entry.metadata.getSize() || (entry.metadata.getLastModified() > 0
+				&& recorded.getLastModified() != entry.metadata.getLastModified());
+	}
+
+	private void queue(String directory, String localDirectory, RemoteLister.Entry entry) {
+		URI fileUri;
+		try {
+			fileUri = new URI(scheme, null, host, port, "/" + directory + entry.name + credentials, null, null);
+		} catch (URISyntaxException e) {
+			log.error("Skipping " + directory + entry.name + ": " + e.getMessage());
+			return;
+		}
+		SimpleDownload download = DownloadEngine.newDownload(fileUri, localDirectory, entry.metadata, priority);
+		synchronized (downloads) {
+			downloads.add(download);
+		}
+	}
+}
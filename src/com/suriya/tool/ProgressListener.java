@@ -0,0 +1,13 @@
+package com.suriya.tool;
+
+import java.util.List;
+
+/*
+ * Receives coalesced progress from the ProgressSampler. Called on the sampler
+ * thread with every download whose progress or status changed since the last
+ * sample.
+ */
+interface ProgressListener {
+
+	void downloadsChanged(List<SimpleDownload> downloads);
+}
@@ -0,0 +1,85 @@
+package com.suriya.tool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class publishes download progress at a fixed rate. Transfer threads
+ * only bump atomic counters; the sampler compares them with what it last
+ * published and hands the changed downloads to the listeners in one batch.
+ */
+class ProgressSampler implements Runnable {
+
+	final static Logger log = Logger.getLogger(ProgressSampler.class);
+
+	// Time between two samples.
+	public static final long SAMPLE_INTERVAL_MILLIS = 250;
+
+	private static final ProgressSampler instance = new ProgressSampler();
+
+	// Downloads that are running or have a change not yet published.
+	private final Set<SimpleDownload> tracked = ConcurrentHashMap.newKeySet();
+	private final List<ProgressListener> listeners = new CopyOnWriteArrayList<ProgressListener>();
+
+	private ProgressSampler() {
+		ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "progress-sampler");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		executor.scheduleAtFixedRate(this, SAMPLE_INTERVAL_MILLIS, SAMPLE_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+	}
+
+	public static ProgressSampler getInstance() {
+		return instance;
+	}
+
+	public void addListener(ProgressListener listener) {
+		listeners.add(listener);
+	}
+
+	public void removeListener(ProgressListener listener) {
+		listeners.remove(listener);
+	}
+
+	// Watch a download until its final state has been published.
+	public void track(SimpleDownload download) {
+		tracked.add(download);
+	}
+
+	public void run() {
+		List<SimpleDownload> changed = new ArrayList<SimpleDownload>();
+		for (SimpleDownload download : tracked) {
+			if (download.sample())
+				changed.add(download);
+
+			// Stop watching finished or paused downloads; a later change tracks them again.
+			if (download.getStatus() != SimpleDownload.DOWNLOADING) {
+				tracked.remove(download);
+				if (download.hasPendingChange() || download.getStatus() == SimpleDownload.DOWNLOADING)
+					tracked.add(download);
+			}
+		}
+		if (changed.isEmpty())
+			return;
+
+		for (ProgressListener listener : listeners) {
+			try {
+				listener.downloadsChanged(changed);
+			} catch (RuntimeException e) {
+				log.error("Error when publishing download progress: " + e.getMessage(), e);
+			}
+		}
+	}
+}
@@ -0,0 +1,30 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.util.List;
+
+/*
+ * Lists one directory of a remote tree, for mirroring. Several directories
+ * may be listed at once from different threads.
+ */
+interface RemoteLister {
+
+	// One entry of a listing: a file with its metadata, or a subdirectory.
+	class Entry {
+		final String name;
+		final boolean directory;
+		final RemoteMetadata metadata; // null for directories, or if the listing does not give it
+
+		Entry(String name, boolean directory, RemoteMetadata metadata) {
+			this.name = name;
+			this.directory = directory;
+			this.metadata = metadata;
+		}
+	}
+
+	/*
+	 * List a directory given by its path relative to the login directory or
+	 * web root, ending with a slash, or "" for the root itself.
+	 */
+	List<Entry> list(String directory) throws IOException;
+}
@@ -0,0 +1,71 @@
+package com.suriya.tool;
+
+// This class holds the cheap validators a server reports for a remote file.
+class RemoteMetadata {
+
+	private long size = -1; // size in bytes, -1 if unknown
+	private long lastModified = 0L; // modification time in milliseconds, 0 if unknown
+	private String etag = null; // HTTP entity tag
+	private String md5 = null; // HTTP Content-MD5
+
+	public RemoteMetadata(long size, long lastModified) {
+		this.size = size;
+		this.lastModified = lastModified;
+	}
+
+	public long getSize() {
+		return size;
+	}
+
+	public long getLastModified() {
+		return lastModified;
+	}
+
+	public String getEtag() {
+		return etag;
+	}
+
+	public void setEtag(String etag) {
+		this.etag = etag;
+	}
+
+	public String getMd5() {
+		return md5;
+	}
+
+	public void setMd5(String md5) {
+		this.md5 = md5;
+	}
+
+	/*
+	 * Two descriptions match when the sizes agree and every validator known to
+	 * both sides agrees. At least one validator besides the size has to be
+	 * compared, a size alone proves nothing.
+	 */
+	public boolean matches(RemoteMetadata other) {
+		if (other == null || size < 0 || size != other.size)
+			return false;
+
+		int compared = 0;
+		if (etag != null && other.etag != null) {
+			if (!etag.equals(other.etag))
+				return false;
+			compared++;
+		}
+		if (md5 != null && other.md5 != null) {
+			if (!md5.equals(other.md5))
+				return false;
+			compared++;
+		}
+		if (lastModified > 0 && other.lastModified > 0) {
+			if (lastModified != other.lastModified)
+				return false;
+			compared++;
+		}
+		return compared > 0;
+	}
+
+	public String toString() {
+		return "size:" + size + ", lastModified:" + lastModified + ", etag:" + etag + ", md5:" + md5;
+	}
+}
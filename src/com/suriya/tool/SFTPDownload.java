@@ -1,187 +1,281 @@
-package com.suriya.tool;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.InputStream;
-import java.io.RandomAccessFile;
-import java.net.URI;
-import org.apache.commons.io.FileUtils;
-import org.apache.log4j.Logger;
-
-import com.jcraft.jsch.Channel;
-import com.jcraft.jsch.ChannelSftp;
-import com.jcraft.jsch.JSch;
-import com.jcraft.jsch.JSchException;
-import com.jcraft.jsch.Session;
-
-public class SFTPDownload extends SimpleDownload {
-
-	final static Logger log = Logger.getLogger(SFTPDownload.class);
-
-	private int port = 22;
-	private Session session = null;
-	private Channel channel = null;
-	private ChannelSftp channelSftp = null;
-
-	public SFTPDownload(URI uri) {
-		super(uri);
-	}
-
-	private void connect() {
-		try {
-			JSch jsch = new JSch();
-			session = jsch.getSession(getUser(), getServer(), port);
-			session.setPassword(getPass());
-			java.util.Properties config = new java.util.Properties();
-			config.put("StrictHostKeyChecking", "no");
-			session.setConfig(config);
-			session.connect();
-			channel = session.openChannel("sftp");
-			channel.connect();
-			channelSftp = (ChannelSftp) channel;
-			/// channelSftp.cd(SFTPWORKINGDIR);
-		} catch (JSchException e) {
-			log.error("Not able to make the connection SFTP with server:" + getServer() + ", port:" + port + ", user:"
-					+ getUser());
-			error();
-		}
-	}
-
-	public void run() {
-
-		RandomAccessFile file = null;
-		InputStream stream = null;	
-		String errorMsg = "";
-			
-		try {
-			String fileName = getFileName(uri);
-			String directoryName = getDownloadPath();
-			createDownloadPath(directoryName);
-			
-			connect();
-			long contentLength = 0L;
-
-			try {
-				contentLength = channelSftp.lstat(fileName).getSize();
-				log.info("File:" + fileName + ", size:" + contentLength);
-			} catch (Exception e) {
-				errorMsg = "Not able to get the size of remote file (" + fileName + ") with the error: "+ e.getMessage();
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				error();
-				disconnect(session, channelSftp);
-				return;
-			}	
-
-			File currentLocalFile = new File(directoryName, fileName);
-			
-			//The code to get the MD5 from server server and local
-			InputStream remoteFileIs = channelSftp.get(fileName);
-			String remoteFileMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(remoteFileIs);
-			remoteFileIs.close();
-			disconnect(session, channelSftp);
-
-			String localFileMD5 = "";
-			if (currentLocalFile.exists()) {
-				InputStream currentLocalFileIs = new FileInputStream(currentLocalFile);
-				localFileMD5 = org.apache.commons.codec.digest.DigestUtils.md5Hex(currentLocalFileIs);
-				currentLocalFileIs.close();
-			}
-
-			log.info("Remote file MD5:" + remoteFileMD5 + ", Local file MD5:" + localFileMD5);
-
-			if (remoteFileMD5.length() > 0 && localFileMD5.length() > 0
-					&& localFileMD5.equalsIgnoreCase(remoteFileMD5)) {
-				errorMsg = "The remote file (" + fileName + ") already exists in the directory:" + directoryName;
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				status = COMPLETE;
-				stateChanged();
-				return;
-			}
-            			
-			// Set the local file length
-			long offset = currentLocalFile.exists() ? currentLocalFile.length() : 0;
-
-			// Set the size for this download if it hasn't been already set.
-			if (size == -1) {
-				size = contentLength;
-				stateChanged();
-			}
-
-			boolean isDiskSpaceEnough = checkDiskFreeSpaceForFile(getFreeDiskSpace(), contentLength);
-			if (!isDiskSpaceEnough) {
-				errorMsg = "The free disk space size(" + FileUtils.byteCountToDisplaySize(getFreeDiskSpace())
-						+ ") is less than download " + "file size(" + FileUtils.byteCountToDisplaySize(contentLength)
-						+ "). Download can not be done.";
-				log.error(errorMsg);
-				DownloadManager.showErrorMessage(errorMsg);
-				error();
-				return;
-			}
-
-			if(offset>0) {
-				downloaded = offset;
-				stateChanged();
-			}
-					
-			file = new RandomAccessFile(directoryName+File.separator+fileName, "rw");
-			file.seek(downloaded);
-
-			connect();
-			InputStream inputStream = channelSftp.get(fileName);
-			log.info("Downloading the file:" + fileName + " from server:" + getServer() + ", with user:" + getUser());
-			while (status == DOWNLOADING) {				
-			
-				byte buffer[];
-				if (size - downloaded > MAX_BUFFER_SIZE) {
-					buffer = new byte[MAX_BUFFER_SIZE];
-				} else {
-					buffer = new byte[(int) (size - downloaded)];
-				}
-
-				// Read from server into buffer.
-				int read = inputStream.read(buffer);			
-				if (read == 0)
-					break;
-
-				// Write buffer to file.
-				file.write(buffer, 0, read);
-				downloaded += read;
-				stateChanged();					
-			}
-			
-			/*
-			 * Change status to complete if this point was reached because
-			 * downloading has finished.
-			 */
-			if (status == DOWNLOADING) {
-				status = COMPLETE;
-				stateChanged();
-			}			
-			log.info("Finish downloading the file: " + directoryName + File.separator + fileName);
-		} catch (Exception ex) {
-			ex.printStackTrace();
-			error();
-		} finally {
-			// Close file.
-			if (file != null) {
-				try {
-					file.close();
-				} catch (Exception e) {
-				}
-			}
-			disconnect(session, channelSftp);
-		}
-	}
-
-	private void disconnect(Session session, ChannelSftp channelSftp) {
-		if (channelSftp.isConnected()) {
-			channelSftp.disconnect();
-		}
-		if (session.isConnected()) {
-			session.disconnect();
-		}
-	}
-
-}
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.commons.io.FileUtils;
+import org.apache.log4j.Logger;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+public class SFTPDownload extends SimpleDownload {
+
+	final static Logger log = Logger.getLogger(SFTPDownload.class);
+
+	private int port = 22;
+	private ChannelSftp channelSftp = null;
+
+	// Whether the channel can go back to the pool: no transfer left open and no error.
+	private boolean reusable = false;
+
+	// Approximate payload of one SFTP read request.
+	public static final int READ_REQUEST_SIZE = 32 * 1024;
+
+	private String remoteFile; // path of the file on the server
+
+	// Idle channels of a segmented transfer, each segment takes one while it runs.
+	private BlockingQueue<ChannelSftp> segmentChannels;
+
+	public SFTPDownload(URI uri) {
+		super(uri);
+	}
+
+	public SFTPDownload(URI uri, String localDirectory, RemoteMetadata listed) {
+		super(uri, localDirectory, listed);
+	}
+
+	public SFTPDownload(URI uri, String localDirectory, RemoteMetadata listed, int priority) {
+		super(uri, localDirectory, listed, priority);
+	}
+
+	// Borrow an SFTP channel on a logged-in session to the server from the pool.
+	private void connect() {
+		if (uri.getPort() > 0)
+			port = uri.getPort();
+		try {
+			channelSftp = SftpSessionPool.getInstance().borrow(getServer(), port, getUser(), getPass());
+			reusable = true;
+		} catch (IOException e) {
+			log.error("Not able to make the connection SFTP with server:" + getServer() + ", port:" + port + ", user:"
+					+ getUser() + ", with error:" + e.getMessage());
+			error();
+		}
+	}
+
+	public void run() {
+
+		InputStream stream = null;	
+		String errorMsg = "";
+			
+		try {
+			String fileName = getFileName(uri);
+			remoteFile = getRemotePath(uri);
+			String directoryName = getDownloadPath();
+			createDownloadPath(directoryName);
+			
+			metrics.connecting();
+			connect();
+			if (channelSftp == null)
+				return;
+			metrics.connected();
+			long contentLength = 0L;
+			RemoteMetadata remote = null;
+
+			try {
+				// Metadata from a directory listing queued with the file is used as is.
+				remote = takeListed();
+				if (remote == null) {
+					SftpATTRS attrs = channelSftp.lstat(remoteFile);
+					remote = new RemoteMetadata(attrs.getSize(), attrs.getMTime() * 1000L);
+				}
+				contentLength = remote.getSize();
+				log.info("File:" + fileName + ", size:" + contentLength);
+			} catch (Exception e) {
+				errorMsg = "Not able to get the size of remote file (" + fileName + ") with the error: "+ e.getMessage();
+				log.error(errorMsg);
+				reportError(errorMsg);
+				error();
+				return;
+			}	
+
+			File currentLocalFile = new File(directoryName, fileName);
+			if (skipIfUpToDate(currentLocalFile, remote))
+				return;
+            			
+			// Find where to resume, from the journal if the last run left one.
+			long offset = openJournal(currentLocalFile, remote, true);
+
+			// Set the size for this download if it hasn't been already set.
+			if (size == -1) {
+				size = contentLength;
+				stateChanged();
+			}
+
+			boolean isDiskSpaceEnough = checkDiskFreeSpaceForFile(getFreeDiskSpace(), contentLength - offset);
+			if (!isDiskSpaceEnough) {
+				errorMsg = "The free disk space size(" + FileUtils.byteCountToDisplaySize(getFreeDiskSpace())
+						+ ") is less than download " + "file size(" + FileUtils.byteCountToDisplaySize(contentLength)
+						+ "). Download can not be done.";
+				log.error(errorMsg);
+				reportError(errorMsg);
+				error();
+				return;
+			}
+
+			String filePath = directoryName + File.separator + fileName;
+			if (planSegments(offset, getSegmentCount())) {
+				log.info("Downloading the file:" + fileName + " in " + segments.size() + " segments");
+				preallocate(currentLocalFile, size);
+				metrics.transferring();
+				try {
+					downloadSegments(filePath, borrowSegmentChannels());
+				} finally {
+					releaseSegmentChannels();
+				}
+
+				// Segments arrive out of order, so the finished file is hashed once.
+				if (status == DOWNLOADING)
+					startDigest(currentLocalFile, size);
+			} else {
+				// Count from the offset, even 0, as a failed run may have counted bytes past it.
+				if (downloaded != offset) {
+					downloaded = offset;
+					stateChanged();
+				}
+
+				preallocate(currentLocalFile, size);
+				startDigest(currentLocalFile, downloaded);
+
+				reusable = false;
+				// Keep many read requests in flight and start at the local length.
+				channelSftp.setBulkRequests(getIntProperty("SFTP.REQUESTS.IN.FLIGHT", 64));
+				metrics.transferring();
+				stream = channelSftp.get(remoteFile, null, offset);
+				log.info("Downloading the file:" + fileName + " from server:" + getServer() + ", with user:" + getUser());
+				try {
+					copyStream(stream, currentLocalFile);
+				} finally {
+					savePartial(currentLocalFile);
+				}
+
+				// Finish the transfer so the channel can be reused.
+				stream.close();
+				stream = null;
+				reusable = (status == DOWNLOADING);
+			}
+
+			/*
+			 * Change status to complete if this point was reached because
+			 * downloading has finished.
+			 */
+			if (status == DOWNLOADING)
+				completeDownload(currentLocalFile, remote);			
+			log.info("Finish downloading the file: " + directoryName + File.separator + fileName);
+		} catch (Exception ex) {
+			ex.printStackTrace();
+			reusable = false;
+			error();
+		} finally {
+			closeJournal();
+			// A transfer still open leaves the channel unusable.
+			if (stream != null) {
+				reusable = false;
+				try {
+					stream.close();
+				} catch (Exception e) {
+				}
+			}
+			disconnect(channelSftp);
+		}
+	}
+
+	/*
+	 * Gather a channel for each unfinished segment, starting with the one
+	 * already open. Extra channels are only taken when free, so downloads never
+	 * wait on each other's segments. Returns the number of channels.
+	 */
+	private int borrowSegmentChannels() {
+		segmentChannels = new LinkedBlockingQueue<ChannelSftp>();
+		segmentChannels.add(channelSftp);
+		channelSftp = null;
+
+		int wanted = 0;
+		for (Segment segment : segments) {
+			if (!segment.isComplete())
+				wanted++;
+		}
+		while (segmentChannels.size() < wanted) {
+			ChannelSftp channel = null;
+			try {
+				channel = SftpSessionPool.getInstance().tryBorrow(getServer(), port, getUser(), getPass());
+			} catch (IOException e) {
+				log.debug("Not able to open another channel to " + getServer() + ": " + e.getMessage());
+			}
+			if (channel == null)
+				break;
+			segmentChannels.add(channel);
+		}
+		return segmentChannels.size();
+	}
+
+	private void releaseSegmentChannels() {
+		ChannelSftp channel;
+		while ((channel = segmentChannels.poll()) != null)
+			SftpSessionPool.getInstance().release(channel, true);
+	}
+
+	/*
+	 * Download one byte range into place: open the file at its position and
+	 * stop reading at its end. Only as many requests as the range needs are
+	 * kept in flight, so little is read past the end.
+	 */
+	@Override
+	protected void downloadSegment(String filePath, Segment segment) throws IOException {
+		ChannelSftp channel = null;
+		try {
+			while (channel == null && status == DOWNLOADING)
+				channel = segmentChannels.poll(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for an SFTP channel");
+		}
+		if (channel == null)
+			return;
+
+		boolean channelReusable = false;
+		InputStream segmentStream = null;
+		try {
+			long requests = segment.getRemaining() / READ_REQUEST_SIZE + 1;
+			channel.setBulkRequests((int) Math.min(requests, getIntProperty("SFTP.REQUESTS.IN.FLIGHT", 64)));
+			segmentStream = channel.get(remoteFile, null, segment.getPosition());
+			copySegment(segmentStream, filePath, segment);
+
+			// Closing the stream drains the outstanding requests, so the channel stays in step.
+			segmentStream.close();
+			segmentStream = null;
+			channelReusable = (status == DOWNLOADING);
+		} catch (JSchException e) {
+			throw new IOException("Not able to read " + segment + ": " + e.getMessage(), e);
+		} catch (SftpException e) {
+			throw new IOException("Not able to read " + segment + ": " + e.getMessage(), e);
+		} finally {
+			if (segmentStream != null) {
+				try {
+					segmentStream.close();
+				} catch (Exception e) {
+				}
+			}
+			if (channelReusable)
+				segmentChannels.add(channel);
+			else
+				SftpSessionPool.getInstance().release(channel, false);
+		}
+	}
+
+	// Return the channel to the pool, or close it if it can not be reused.
+	private void disconnect(ChannelSftp channelSftp) {
+		if (channelSftp != null) {
+			SftpSessionPool.getInstance().release(channelSftp, reusable);
+			this.channelSftp = null;
+		}
+	}
+
+}
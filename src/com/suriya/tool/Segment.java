@@ -0,0 +1,69 @@
+package com.suriya.tool;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// This class describes one byte range of a segmented download.
+class Segment {
+
+	private final int index;
+	private final long start; // first byte of the range
+	private final long end; // last byte of the range, inclusive
+	private volatile long position; // next byte to fetch
+
+	public Segment(int index, long start, long end) {
+		this.index = index;
+		this.start = start;
+		this.end = end;
+		this.position = start;
+	}
+
+	/*
+	 * Split a file of the given size into count contiguous ranges. The last
+	 * range takes the remainder.
+	 */
+	public static List<Segment> split(long size, int count) {
+		List<Segment> segments = new ArrayList<Segment>();
+		long segmentSize = size / count;
+		for (int i = 0; i < count; i++) {
+			long start = i * segmentSize;
+			long end = (i == count - 1) ? size - 1 : start + segmentSize - 1;
+			segments.add(new Segment(i, start, end));
+		}
+		return segments;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public long getStart() {
+		return start;
+	}
+
+	public long getEnd() {
+		return end;
+	}
+
+	public long getPosition() {
+		return position;
+	}
+
+	// Get the number of bytes still to fetch for this range.
+	public long getRemaining() {
+		return end - position + 1;
+	}
+
+	public boolean isComplete() {
+		return position > end;
+	}
+
+	// Record that read bytes have been written at the current position.
+	public void advance(int read) {
+		position += read;
+	}
+
+	public String toString() {
+		return "Segment " + index + " [" + start + "-" + end + "], position:" + position;
+	}
+}
@@ -0,0 +1,59 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Vector;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.SftpATTRS;
+import com.jcraft.jsch.SftpException;
+
+/*
+ * This class lists SFTP directories over pooled channels. Symbolic links are
+ * skipped, so a link back up the tree can not make a mirror walk forever.
+ */
+class SftpDirectory implements RemoteLister {
+
+	private final String host;
+	private final int port;
+	private final String user;
+	private final String pass;
+
+	SftpDirectory(String host, int port, String user, String pass) {
+		this.host = host;
+		this.port = port;
+		this.user = user;
+		this.pass = pass;
+	}
+
+	public List<Entry> list(String directory) throws IOException {
+		SftpSessionPool pool = SftpSessionPool.getInstance();
+		ChannelSftp channel = pool.borrow(host, port, user, pass);
+		boolean reusable = false;
+		Vector<?> files;
+		try {
+			files = channel.ls((directory.length() == 0) ? "." : directory);
+			reusable = true;
+		} catch (SftpException e) {
+			reusable = true;
+			throw new IOException("Not able to list " + directory + ": " + e.getMessage(), e);
+		} finally {
+			pool.release(channel, reusable);
+		}
+
+		List<Entry> entries = new ArrayList<Entry>();
+		for (Object file : files) {
+			ChannelSftp.LsEntry entry = (ChannelSftp.LsEntry) file;
+			SftpATTRS attrs = entry.getAttrs();
+			if (entry.getFilename().equals(".") || entry.getFilename().equals("..") || attrs.isLink())
+				continue;
+			if (attrs.isDir())
+				entries.add(new Entry(entry.getFilename(), true, null));
+			else if (attrs.isReg())
+				entries.add(new Entry(entry.getFilename(), false,
+						new RemoteMetadata(attrs.getSize(), attrs.getMTime() * 1000L)));
+		}
+		return entries;
+	}
+}
@@ -0,0 +1,361 @@
+package com.suriya.tool;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import com.jcraft.jsch.ChannelSftp;
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import com.jcraft.jsch.SftpException;
+import com.jcraft.jsch.SocketFactory;
+
+/*
+ * This class keeps authenticated SSH sessions for reuse, keyed by host, port
+ * and user, and hands out SFTP channels opened on them. Several channels share
+ * one session, so concurrent transfers to a host pay for the key exchange
+ * once. A borrowed idle channel is checked with a round trip first, and idle
+ * channels and sessions are closed after a timeout.
+ *
+ * Settings in config.properties:
+ *   SFTP.POOL.MAX.SESSIONS.PER.HOST     sessions open to one host and user (default 2)
+ *   SFTP.POOL.MAX.CHANNELS.PER.SESSION  channels open on one session (default 8)
+ *   SFTP.POOL.IDLE.TIMEOUT              milliseconds before an idle channel or session is closed (default 60000)
+ *   SFTP.POOL.BORROW.TIMEOUT            milliseconds to wait for a free channel (default 300000)
+ *   SFTP.RECEIVE.BUFFER.SIZE            socket receive buffer of new sessions (default 0 = system
+ *                                       default), tuned per host when AUTOTUNE is on
+ */
+class SftpSessionPool {
+
+	final static Logger log = Logger.getLogger(SftpSessionPool.class);
+
+	private static SftpSessionPool instance = null;
+
+	// A session and the number of channels open on it.
+	private static class Connection {
+		final String key;
+		Session session; // null while it is being opened
+		int channels = 0;
+		long idleSince;
+
+		Connection(String key) {
+			this.key = key;
+			this.idleSince = System.currentTimeMillis();
+		}
+	}
+
+	// An idle channel and when it was returned.
+	private static class Idle {
+		final ChannelSftp channel;
+		final long since;
+
+		Idle(ChannelSftp channel, long since) {
+			this.channel = channel;
+			this.since = since;
+		}
+	}
+
+	// Opens session sockets with a receive buffer set before connecting, so the TCP window can scale to it.
+	private static class ReceiveBufferSocketFactory implements SocketFactory {
+		private final int receiveBufferSize;
+
+		ReceiveBufferSocketFactory(int receiveBufferSize) {
+			this.receiveBufferSize = receiveBufferSize;
+		}
+
+		public Socket createSocket(String host, int port) throws IOException {
+			Socket socket = new Socket();
+			socket.setReceiveBufferSize(receiveBufferSize);
+			socket.connect(new InetSocketAddress(host, port));
+			return socket;
+		}
+
+		public InputStream getInputStream(Socket socket) throws IOException {
+			return socket.getInputStream();
+		}
+
+		public OutputStream getOutputStream(Socket socket) throws IOException {
+			return socket.getOutputStream();
+		}
+	}
+
+	private final JSch jsch = new JSch();
+	private final int maxSessionsPerHost;
+	private final int maxChannelsPerSession;
+	private final long idleTimeout;
+	private final long borrowTimeout;
+
+	private final Map<String, List<Connection>> connections = new HashMap<String, List<Connection>>();
+	private final Map<String, Deque<Idle>> idle = new HashMap<String, Deque<Idle>>();
+	private final Map<ChannelSftp, Connection> owners = new HashMap<ChannelSftp, Connection>();
+
+	SftpSessionPool(Properties config) {
+		this.maxSessionsPerHost = Integer.parseInt(config.getProperty("SFTP.POOL.MAX.SESSIONS.PER.HOST", "2").trim());
+		this.maxChannelsPerSession = Integer.parseInt(config.getProperty("SFTP.POOL.MAX.CHANNELS.PER.SESSION", "8").trim());
+		this.idleTimeout = Long.parseLong(config.getProperty("SFTP.POOL.IDLE.TIMEOUT", "60000").trim());
+		this.borrowTimeout = Long.parseLong(config.getProperty("SFTP.POOL.BORROW.TIMEOUT", "300000").trim());
+
+		ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "sftp-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = Math.max(1000L, idleTimeout / 2);
+		evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdle();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public static synchronized SftpSessionPool getInstance() {
+		if (instance == null)
+			instance = new SftpSessionPool(SimpleDownload.loadConfig());
+		return instance;
+	}
+
+	/*
+	 * Get a connected SFTP channel: an idle one that still answers, a new one
+	 * on a session with room for it, or a new one on a new session. Waits
+	 * while the host is at its limits.
+	 */
+	public ChannelSftp borrow(String host, int port, String user, String pass) throws IOException {
+		return borrow(host, port, user, pass, true);
+	}
+
+	/*
+	 * Get a channel like borrow, but return null at once instead of waiting if
+	 * the host is at its limits.
+	 */
+	public ChannelSftp tryBorrow(String host, int port, String user, String pass) throws IOException {
+		return borrow(host, port, user, pass, false);
+	}
+
+	private ChannelSftp borrow(String host, int port, String user, String pass, boolean wait) throws IOException {
+		String key = host + ":" + port + ":" + user;
+		long deadline = System.currentTimeMillis() + borrowTimeout;
+		while (true) {
+			ChannelSftp channel = null;
+			Connection connection = null;
+			boolean newSession = false;
+			synchronized (this) {
+				Deque<Idle> channels = idle.get(key);
+				Idle free = (channels == null) ? null : channels.pollLast();
+				if (free != null) {
+					channel = free.channel;
+				} else if ((connection = withRoom(key)) != null) {
+					connection.channels++;
+				} else if (sessions(key).size() < maxSessionsPerHost) {
+					connection = new Connection(key);
+					connection.channels++;
+					sessions(key).add(connection);
+					newSession = true;
+				} else if (!wait) {
+					return null;
+				} else {
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0)
+						throw new IOException("Timed out waiting for an SFTP channel to " + key);
+					try {
+						wait(remaining);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new IOException("Interrupted while waiting for an SFTP channel to " + key);
+					}
+					continue;
+				}
+			}
+
+			if (channel != null) {
+				if (isAlive(channel))
+					return channel;
+				close(channel);
+				continue;
+			}
+			return open(connection, newSession, host, port, user, pass);
+		}
+	}
+
+	/*
+	 * Give a channel back. Channels that were interrupted mid-transfer or hit
+	 * an error are closed instead of reused.
+	 */
+	public void release(ChannelSftp channel, boolean reusable) {
+		if (reusable && channel.isConnected()) {
+			synchronized (this) {
+				Connection connection = owners.get(channel);
+				Deque<Idle> channels = idle.get(connection.key);
+				if (channels == null) {
+					channels = new ArrayDeque<Idle>();
+					idle.put(connection.key, channels);
+				}
+				channels.addLast(new Idle(channel, System.currentTimeMillis()));
+				notifyAll();
+			}
+		} else {
+			close(channel);
+		}
+	}
+
+	// Open a channel on a reserved slot, logging in first if the session is new.
+	private ChannelSftp open(Connection connection, boolean newSession, String host, int port, String user,
+			String pass) throws IOException {
+		try {
+			if (newSession) {
+				Session session = jsch.getSession(user, host, port);
+				session.setPassword(pass);
+				Properties config = new Properties();
+				config.put("StrictHostKeyChecking", "no");
+				session.setConfig(config);
+				int receiveBufferSize = AutoTuner.getInstance().getReceiveBufferSize("sftp", host);
+				if (receiveBufferSize > 0)
+					session.setSocketFactory(new ReceiveBufferSocketFactory(receiveBufferSize));
+				session.connect();
+				log.info("Connected to SFTP server successfully: " + connection.key);
+				synchronized (this) {
+					connection.session = session;
+					notifyAll();
+				}
+			} else {
+				waitForSession(connection);
+			}
+
+			ChannelSftp channel = (ChannelSftp) connection.session.openChannel("sftp");
+			channel.connect();
+			synchronized (this) {
+				owners.put(channel, connection);
+			}
+			return channel;
+		} catch (JSchException e) {
+			freeSlot(connection, newSession);
+			throw new IOException("Connection to SFTP server " + connection.key + " failed: " + e.getMessage(), e);
+		} catch (IOException e) {
+			freeSlot(connection, newSession);
+			throw e;
+		}
+	}
+
+	// Wait for another thread to finish logging in on a session just added.
+	private synchronized void waitForSession(Connection connection) throws IOException {
+		while (connection.session == null) {
+			if (!sessions(connection.key).contains(connection))
+				throw new IOException("Connection to SFTP server " + connection.key + " failed");
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while connecting to " + connection.key);
+			}
+		}
+	}
+
+	// Give back a slot whose channel could not be opened.
+	private synchronized void freeSlot(Connection connection, boolean newSession) {
+		connection.channels--;
+		if (newSession || connection.session == null || !connection.session.isConnected())
+			drop(connection);
+		notifyAll();
+	}
+
+	// Check an idle channel with a round trip before handing it out again.
+	private boolean isAlive(ChannelSftp channel) {
+		try {
+			if (!channel.isConnected() || channel.isClosed())
+				return false;
+			channel.realpath(".");
+			return true;
+		} catch (SftpException e) {
+			return false;
+		}
+	}
+
+	// Close a channel, freeing its slot on the session.
+	private void close(ChannelSftp channel) {
+		synchronized (this) {
+			Connection connection = owners.remove(channel);
+			if (connection != null) {
+				connection.channels--;
+				if (connection.channels == 0)
+					connection.idleSince = System.currentTimeMillis();
+				if (connection.session != null && !connection.session.isConnected())
+					drop(connection);
+			}
+			notifyAll();
+		}
+		channel.disconnect();
+	}
+
+	// Forget a session and close it. Its channels must already be closed or broken.
+	private void drop(Connection connection) {
+		sessions(connection.key).remove(connection);
+		if (connection.session != null)
+			connection.session.disconnect();
+	}
+
+	private void evictIdle() {
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+		List<ChannelSftp> expired = new ArrayList<ChannelSftp>();
+		synchronized (this) {
+			for (Deque<Idle> channels : idle.values()) {
+				for (Iterator<Idle> it = channels.iterator(); it.hasNext();) {
+					Idle free = it.next();
+					if (free.since < cutoff) {
+						it.remove();
+						expired.add(free.channel);
+					}
+				}
+			}
+		}
+		for (ChannelSftp channel : expired)
+			close(channel);
+
+		synchronized (this) {
+			for (List<Connection> sessions : connections.values()) {
+				for (Connection connection : new ArrayList<Connection>(sessions)) {
+					if (connection.session != null && connection.channels == 0 && connection.idleSince < cutoff) {
+						log.info("Closing idle SFTP session to " + connection.key);
+						drop(connection);
+					}
+				}
+			}
+		}
+	}
+
+	// Find a logged-in session to the host with room for one more channel.
+	private Connection withRoom(String key) {
+		for (Connection connection : sessions(key)) {
+			if (connection.channels < maxChannelsPerSession
+					&& (connection.session == null || connection.session.isConnected()))
+				return connection;
+		}
+		return null;
+	}
+
+	private List<Connection> sessions(String key) {
+		List<Connection> sessions = connections.get(key);
+		if (sessions == null) {
+			sessions = new ArrayList<Connection>();
+			connections.put(key, sessions);
+		}
+		return sessions;
+	}
+}
@@ -1,229 +1,1080 @@
-package com.suriya.tool;
-
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.net.URI;
-import java.net.URL;
-import java.net.URLDecoder;
-import java.util.Observable;
-import java.util.Properties;
-
-import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.commons.io.output.CountingOutputStream;
-import org.apache.log4j.Logger;
-
-public abstract class SimpleDownload extends Observable implements Runnable {
-
-	final static Logger log = Logger.getLogger(SimpleDownload.class);
-	
-	protected String user = "";
-	protected String pass = "";
-	protected String server = "";	
-	protected String protocol = "";	
-
-	// Max size of download buffer.
-	public static final int MAX_BUFFER_SIZE = 4096;
-
-	// These are the status names.
-	public static final String STATUSES[] = { "Downloading", "Paused", "Complete", "Cancelled", "Error" };
-
-	// These are the status codes.
-	public static final int DOWNLOADING = 0;
-	public static final int PAUSED = 1;
-	public static final int COMPLETE = 2;
-	public static final int CANCELLED = 3;
-	public static final int ERROR = 4;
-
-	protected URI uri; // download URL
-	protected long size; // size of download in bytes
-	protected long downloaded; // number of bytes downloaded
-	protected int status; // current status of download
-
-	protected Properties prop = null;
-	protected Properties systemProp = null;
-			
-	// Constructor for Download.
-	public SimpleDownload(URI uri) {
-		this.uri = uri;
-		size = -1;
-		downloaded = 0L;
-		status = DOWNLOADING;
-
-		loadProperties();
-		// Begin the download.
-		download();
-	}
-
-	void loadProperties () {
-		prop = new Properties();
-		InputStream input = null;
-		systemProp = System.getProperties();
-		try {
-			input = new FileInputStream("config.properties");
-			// load a properties file
-			prop.load(input);
-			// get the property value and print it out
-			log.info("BASE.DOWNLOAD.PATH:"+prop.getProperty("BASE.DOWNLOAD.PATH"));			
-
-		} catch (IOException ex) {
-			ex.printStackTrace();
-		} finally {
-			if (input != null) {
-				try {
-					input.close();
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-	}
-	
-	public long getFreeDiskSpace() {  	
-		long freeSpace = 0L;
-		String directoryName =  getDownloadPath();
-		File currentDownloadPath = new File(directoryName);
-		freeSpace = currentDownloadPath.getFreeSpace();
-		return freeSpace;
-	}
-	
-	public void createDownloadPath(String downloadPath) {
-		File tempDir = new File(downloadPath);
-		try {
-			if(!tempDir.exists())
-				FileUtils.forceMkdir(tempDir);
-		} catch (IOException e) {
-			log.error("Error when trying to create sub download path:"+e);
-			e.printStackTrace();
-		}
-	}
-	
-	public String getDownloadPath() {  	
-		String downloadPath = prop.getProperty("BASE.DOWNLOAD.PATH", systemProp.getProperty("user.dir"));
-		String newDownloadPath= downloadPath.concat(File.separator).concat(getSubDownloadPath(server));
-		log.info("newDownloadPath:"+newDownloadPath);
-		return newDownloadPath;
-	}
-	
-	public String getSubDownloadPath(String host) {
-		String subDownloadPath = host.replace(".", "_");
-		return subDownloadPath;
-	}
-	
-	// Get this download's URL.
-	public String getUrl() {		
-		String currentUrl = uri.toString();		
-		if ((protocol.equals("sftp") || protocol.equals("ftp")) && currentUrl.contains(",")) {
-			String[] tempUrl = currentUrl.split(",");  
-			currentUrl = tempUrl[0];
-		}
-		
-		return currentUrl;
-	}
-
-	// Get this download's size.
-	public long getSize() {
-		return size;
-	}
-
-	public String getUser() {
-		return user;
-	}
-	
-	public String getPass() {
-		return pass;
-	}
-
-	public String getServer() {
-		return server;
-	}	
-	
-	// Get this download's progress.
-	public float getProgress() {
-		return ((float) downloaded / size) * 100;
-	}
-
-	// Get this download's status.
-	public int getStatus() {
-		return status;
-	}
-
-	// Pause this download.
-	public void pause() {
-		status = PAUSED;
-		stateChanged();
-	}
-
-	// Resume this download.
-	public void resume() {
-		status = DOWNLOADING;
-		stateChanged();
-		download();
-	}
-
-	// Cancel this download.
-	public void cancel() {
-		status = CANCELLED;
-		stateChanged();
-	}
-
-	// Mark this download as having an error.
-	protected void error() {
-		status = ERROR;
-		stateChanged();
-	}
-
-	// Start or resume downloading.
-	protected void download() {
-		Thread thread = new Thread(this);
-		thread.start();
-	}
-
-	// Get file name portion of URI.
-	protected String getFileName(URI uri) {		
-		
-		this.protocol = uri.toString().substring(0, uri.toString().indexOf("://"));
-		//String tempFile = URLDecoder.decode(uri.getPath());
-		String tempFile = uri.getPath();
-		String fileName = tempFile.substring(tempFile.lastIndexOf("/"), tempFile.length()).substring(1);
-		this.server = uri.getHost();			
-		
-		server = uri.getHost();
-		log.debug("protocol: " + protocol);	
-		log.debug("tempFile: " + tempFile+", fileName: "+fileName);	
-		
-		if ((protocol.equals("sftp") || protocol.equals("ftp")) && fileName.contains(",")) {
-			String[] temp = fileName.split(",");
-			if (temp != null) {
-				fileName = temp[0];
-				this.user = temp[1];
-				this.pass = temp[2];
-				
-				log.debug("fileName: " + fileName);
-				log.debug("user: " + user);
-				log.debug("pass: " + pass);
-			}
-		}				
-		return fileName;
-	}
-
-	@Override
-	public void run() {
-	}
-
-	// Notify observers that this download's status has changed.
-	protected void stateChanged() {
-		setChanged();
-		notifyObservers();
-	}
-
-	protected boolean checkDiskFreeSpaceForFile(long machineSpache, long fileSize) {
-		boolean isDiskSpaceEnough =  (machineSpache>fileSize)? true: false;
-		return isDiskSpaceEnough;		
-	}	
-	
-}
+package com.suriya.tool;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.NullOutputStream;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.log4j.Logger;
+
+public abstract class SimpleDownload implements Runnable {
+
+	final static Logger log = Logger.getLogger(SimpleDownload.class);
+	
+	protected String user = "";
+	protected String pass = "";
+	protected String server = "";	
+	protected String protocol = "";	
+
+	// Size of each write when preallocating with zeros.
+	public static final int PREALLOCATE_CHUNK_SIZE = 1024 * 1024;
+
+	// Default size of the download buffer, also the size of each file write.
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+	// Smallest byte range worth its own connection.
+	public static final int MIN_SEGMENT_SIZE = 1024 * 1024;
+
+	// Samples without progress between two reports of a stalled transfer, about a second.
+	static final int STALLED_SAMPLES = (int) (1000 / ProgressSampler.SAMPLE_INTERVAL_MILLIS);
+
+	// These are the status names.
+	public static final String STATUSES[] = { "Downloading", "Paused", "Complete", "Cancelled", "Error", "Queued" };
+
+	// These are the status codes.
+	public static final int DOWNLOADING = 0;
+	public static final int PAUSED = 1;
+	public static final int COMPLETE = 2;
+	public static final int CANCELLED = 3;
+	public static final int ERROR = 4;
+	public static final int QUEUED = 5;
+
+	// These are the priority classes, served in this order by the scheduler.
+	public static final int PRIORITY_HIGH = 0;
+	public static final int PRIORITY_NORMAL = 1;
+	public static final int PRIORITY_LOW = 2;
+
+	protected URI uri; // download URL
+	protected String localDirectory; // directory under the host's download path, null for the host's own
+	protected RemoteMetadata listed; // size and time from a directory listing, used once instead of asking again
+	protected volatile long size; // size of download in bytes
+	protected volatile long downloaded; // number of bytes downloaded
+	protected volatile int status; // current status of download
+
+	// Lets transfer threads add to downloaded without taking a lock.
+	private static final AtomicLongFieldUpdater<SimpleDownload> DOWNLOADED = AtomicLongFieldUpdater
+			.newUpdater(SimpleDownload.class, "downloaded");
+
+	private final AtomicBoolean changed = new AtomicBoolean(); // status or size changed since the last sample
+	private long published = -1L; // downloaded as of the last sample, used by the sampler only
+	private int stalledSamples = 0; // samples in a row without progress while downloading, sampler only
+
+	// Decides whether the local copy is already current.
+	protected FreshnessCheck freshnessCheck = new MetadataFreshnessCheck();
+
+	// Digest of the bytes written so far, in file order.
+	private MessageDigest digest = null; // null unless the server's MD5 has to be matched
+	private boolean digestNeeded = false;
+	private long digested = 0L; // number of bytes fed to the digest
+
+	protected int priority = PRIORITY_NORMAL; // scheduling class of download
+
+	// Byte ranges of a segmented download, kept across pause and resume.
+	protected List<Segment> segments = null;
+
+	// Resume state of the current run, kept on disk.
+	private volatile DownloadJournal journal = null;
+	private volatile DownloadIndex index = null; // index of the target directory, held while running
+
+	// Chunk hashes recorded during the current run.
+	private volatile HashManifest manifest = null;
+
+	// Manifest the download has to match, once looked up.
+	protected HashManifest expected = null;
+
+	// Phase timings of each run, published over JMX.
+	protected final TransferMetrics metrics = new TransferMetrics(this);
+
+	// Tuned settings of the current run, null unless AUTOTUNE is on.
+	private volatile AutoTuner.Settings tuning = null;
+
+	private volatile long startTime = 0L; // when the last run started, in milliseconds
+	private volatile long endTime = 0L; // when the last run ended, 0 while running
+
+	// Bandwidth limit of this download alone.
+	private final TokenBucket rateLimit = new TokenBucket(BandwidthManager.getInstance().getDownloadRate());
+
+	// Shows errors to the user, if there is one.
+	private static volatile ErrorHandler errorHandler = new ErrorHandler() {
+		public void showError(SimpleDownload download, String message) {
+		}
+	};
+
+	// Settings from config.properties, shared by all downloads.
+	private static Properties config = null;
+
+	protected Properties prop = null;
+	protected Properties systemProp = null;
+			
+	// Constructor for Download.
+	public SimpleDownload(URI uri) {
+		this(uri, null, null);
+	}
+
+	/*
+	 * Constructor for a download found by listing a directory, stored in the
+	 * given directory below the host's download path.
+	 */
+	public SimpleDownload(URI uri, String localDirectory, RemoteMetadata listed) {
+		this(uri, localDirectory, listed, PRIORITY_NORMAL);
+	}
+
+	// Constructor for a download queued in the given priority class.
+	public SimpleDownload(URI uri, String localDirectory, RemoteMetadata listed, int priority) {
+		this.uri = uri;
+		this.localDirectory = localDirectory;
+		this.listed = listed;
+		this.priority = priority;
+		size = -1;
+		downloaded = 0L;
+		status = QUEUED;
+
+		loadProperties();
+	}
+
+	void loadProperties () {
+		prop = loadConfig();
+		systemProp = System.getProperties();
+	}
+
+	// Read config.properties once; every download shares the same settings.
+	static synchronized Properties loadConfig() {
+		if (config != null)
+			return config;
+
+		config = new Properties();
+		InputStream input = null;
+		try {
+			input = new FileInputStream("config.properties");
+			// load a properties file
+			config.load(input);
+			// get the property value and print it out
+			log.info("BASE.DOWNLOAD.PATH:"+config.getProperty("BASE.DOWNLOAD.PATH"));			
+
+		} catch (IOException ex) {
+			ex.printStackTrace();
+		} finally {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		return config;
+	}
+
+	// Get an integer setting from config.properties, falling back to the default.
+	protected int getIntProperty(String key, int defaultValue) {
+		String value = prop.getProperty(key);
+		if (value == null || value.trim().length() == 0)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			log.error("Invalid value for " + key + ": " + value);
+			return defaultValue;
+		}
+	}
+
+	// Get how bytes are written to the file, as set by WRITE.MODE (see FileSink).
+	protected String getWriteMode() {
+		return prop.getProperty("WRITE.MODE", FileSink.STREAM).trim().toLowerCase();
+	}
+
+	/*
+	 * Get the buffer size for this download's protocol, set as
+	 * <PROTOCOL>.BUFFER.SIZE in config.properties.
+	 */
+	protected int getBufferSize() {
+		AutoTuner.Settings settings = tuning;
+		if (settings != null)
+			return settings.getBufferSize();
+		int bufferSize = getIntProperty(protocol.toUpperCase() + ".BUFFER.SIZE", DEFAULT_BUFFER_SIZE);
+		return (bufferSize > 0) ? bufferSize : DEFAULT_BUFFER_SIZE;
+	}
+
+	// Get how many segments a new download is split into, set as <PROTOCOL>.SEGMENTS or tuned.
+	protected int getSegmentCount() {
+		AutoTuner.Settings settings = tuning;
+		if (settings != null)
+			return settings.getSegments();
+		return getIntProperty(protocol.toUpperCase() + ".SEGMENTS", 1);
+	}
+
+	/*
+	 * Get the socket receive buffer for this download's data connections, set
+	 * as <PROTOCOL>.RECEIVE.BUFFER.SIZE or tuned. 0 leaves the system default.
+	 */
+	protected int getReceiveBufferSize() {
+		AutoTuner.Settings settings = tuning;
+		if (settings != null)
+			return settings.getReceiveBufferSize();
+		return Math.max(0, getIntProperty(protocol.toUpperCase() + ".RECEIVE.BUFFER.SIZE", 0));
+	}
+
+	public long getFreeDiskSpace() {  	
+		long freeSpace = 0L;
+		String directoryName =  getDownloadPath();
+		File currentDownloadPath = new File(directoryName);
+		freeSpace = currentDownloadPath.getFreeSpace();
+		return freeSpace;
+	}
+	
+	public void createDownloadPath(String downloadPath) {
+		File tempDir = new File(downloadPath);
+		try {
+			if(!tempDir.exists())
+				FileUtils.forceMkdir(tempDir);
+		} catch (IOException e) {
+			log.error("Error when trying to create sub download path:"+e);
+			e.printStackTrace();
+		}
+	}
+	
+	public String getDownloadPath() {  	
+		String newDownloadPath = getDownloadPath(server, localDirectory);
+		log.info("newDownloadPath:"+newDownloadPath);
+		return newDownloadPath;
+	}
+
+	// Get where files from a host are stored, optionally in a directory below the host's own.
+	static String getDownloadPath(String host, String localDirectory) {
+		String downloadPath = loadConfig().getProperty("BASE.DOWNLOAD.PATH", System.getProperty("user.dir"));
+		String newDownloadPath= downloadPath.concat(File.separator).concat(getSubDownloadPath(host));
+		if (localDirectory != null)
+			newDownloadPath = newDownloadPath.concat(File.separator).concat(localDirectory.replace('/', File.separatorChar));
+		return newDownloadPath;
+	}
+	
+	public static String getSubDownloadPath(String host) {
+		String subDownloadPath = host.replace(".", "_");
+		return subDownloadPath;
+	}
+	
+	// Get this download's URL.
+	public String getUrl() {		
+		String currentUrl = uri.toString();		
+		if ((protocol.equals("sftp") || protocol.equals("ftp")) && currentUrl.contains(",")) {
+			String[] tempUrl = currentUrl.split(",");  
+			currentUrl = tempUrl[0];
+		}
+		
+		return currentUrl;
+	}
+
+	/*
+	 * Get a URL without its credentials, neither the user-info nor the
+	 * ",user,pass" after an FTP or SFTP file name, to keep it on disk.
+	 */
+	static String withoutCredentials(URI uri) {
+		String scheme = uri.getScheme();
+		String path = uri.getRawPath();
+		if (path == null)
+			return uri.toString();
+		if (scheme.equalsIgnoreCase("sftp") || scheme.equalsIgnoreCase("ftp")) {
+			int comma = path.indexOf(',', path.lastIndexOf('/') + 1);
+			if (comma >= 0)
+				path = path.substring(0, comma);
+		}
+		StringBuilder url = new StringBuilder(scheme).append("://").append(uri.getHost());
+		if (uri.getPort() != -1)
+			url.append(':').append(uri.getPort());
+		url.append(path);
+		if (uri.getRawQuery() != null)
+			url.append('?').append(uri.getRawQuery());
+		return url.toString();
+	}
+
+	// Get this download's size.
+	public long getSize() {
+		return size;
+	}
+
+	public void setFreshnessCheck(FreshnessCheck freshnessCheck) {
+		this.freshnessCheck = freshnessCheck;
+	}
+
+	public String getUser() {
+		return user;
+	}
+	
+	public String getPass() {
+		return pass;
+	}
+
+	public String getServer() {
+		return server;
+	}	
+	
+	// Get this download's progress.
+	public float getProgress() {
+		return ((float) downloaded / size) * 100;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	// Set the scheduling class, moving the download if it is waiting in the queue.
+	public void setPriority(int priority) {
+		this.priority = priority;
+		if (status == QUEUED)
+			DownloadScheduler.getInstance().reprioritize(this);
+	}
+
+	// Called by the scheduler around each run.
+	void started() {
+		startTime = System.currentTimeMillis();
+		endTime = 0L;
+		metrics.setFileName(getFileName(uri));
+		metrics.started(downloaded);
+		TransferStats.getInstance().register(metrics);
+		tuning = AutoTuner.getInstance().settingsFor(this);
+		index = DownloadIndex.acquire(new File(getDownloadPath(server, localDirectory)));
+	}
+
+	void stopped() {
+		endTime = System.currentTimeMillis();
+		metrics.stopped(status, downloaded);
+		AutoTuner.Settings settings = tuning;
+		if (settings != null) {
+			AutoTuner.getInstance().record(this, settings, status == ERROR, metrics.getRunBytes(),
+					metrics.getRunThroughput());
+			tuning = null;
+		}
+		DownloadIndex held = index;
+		if (held != null) {
+			DownloadIndex.release(held);
+			index = null;
+		}
+	}
+
+	// Called when the download is cleared from the list.
+	void cleared() {
+		TransferStats.getInstance().remove(metrics);
+	}
+
+	// Whether a run has started and not yet ended.
+	boolean isRunning() {
+		return startTime != 0L && endTime == 0L;
+	}
+
+	// Get how long the last run took, or has taken so far, in milliseconds.
+	public long getElapsedTime() {
+		if (startTime == 0L)
+			return 0L;
+		return ((endTime != 0L) ? endTime : System.currentTimeMillis()) - startTime;
+	}
+
+	TokenBucket getRateLimit() {
+		return rateLimit;
+	}
+
+	// Limit this download to the given bytes per second, 0 for no limit. Applies while running.
+	public void setRateLimit(long rate) {
+		rateLimit.setRate(rate);
+		if (rate > 0)
+			BandwidthManager.getInstance().downloadLimited();
+	}
+
+	// Get this download's status.
+	public int getStatus() {
+		return status;
+	}
+
+	// Pause this download.
+	public void pause() {
+		status = PAUSED;
+		DownloadScheduler.getInstance().remove(this);
+		stateChanged();
+	}
+
+	// Resume this download.
+	public void resume() {
+		status = QUEUED;
+		stateChanged();
+		download();
+	}
+
+	// Cancel this download.
+	public void cancel() {
+		status = CANCELLED;
+		DownloadScheduler.getInstance().remove(this);
+		stateChanged();
+		// A running transfer discards its own journal when it stops.
+		if (journal == null)
+			DownloadJournal.delete(new File(getDownloadPath(), getFileName(uri)));
+	}
+
+	public static void setErrorHandler(ErrorHandler handler) {
+		errorHandler = handler;
+	}
+
+	// Pass an error message, already logged, on to the user.
+	protected void reportError(String message) {
+		errorHandler.showError(this, message);
+	}
+
+	// Mark this download as having an error.
+	protected void error() {
+		status = ERROR;
+		stateChanged();
+	}
+
+	// Start or resume downloading once the scheduler has a free slot.
+	protected void download() {
+		metrics.queued();
+		DownloadScheduler.getInstance().submit(this);
+	}
+
+	// Get file name portion of URI.
+	protected String getFileName(URI uri) {		
+		
+		this.protocol = uri.toString().substring(0, uri.toString().indexOf("://"));
+		//String tempFile = URLDecoder.decode(uri.getPath());
+		String tempFile = uri.getPath();
+		String fileName = tempFile.substring(tempFile.lastIndexOf("/"), tempFile.length()).substring(1);
+		this.server = uri.getHost();			
+		
+		server = uri.getHost();
+		log.debug("protocol: " + protocol);	
+		log.debug("tempFile: " + tempFile+", fileName: "+fileName);	
+		
+		if ((protocol.equals("sftp") || protocol.equals("ftp")) && fileName.contains(",")) {
+			String[] temp = fileName.split(",");
+			if (temp != null) {
+				fileName = temp[0];
+				this.user = temp[1];
+				this.pass = temp[2];
+				
+				log.debug("fileName: " + fileName);
+				log.debug("user: " + user);
+				log.debug("pass: " + pass);
+			}
+		}				
+		return fileName;
+	}
+
+	/*
+	 * Get the file's path on the server, relative to the login directory and
+	 * without the credentials.
+	 */
+	protected String getRemotePath(URI uri) {
+		String path = uri.getPath();
+		return path.substring(1, path.lastIndexOf('/') + 1) + getFileName(uri);
+	}
+
+	// Take the metadata from the listing that found this download, once.
+	protected RemoteMetadata takeListed() {
+		RemoteMetadata metadata = listed;
+		listed = null;
+		return metadata;
+	}
+
+	@Override
+	public void run() {
+	}
+
+	/*
+	 * Copy a single stream into the file from the downloaded count on, until
+	 * the file is complete, the stream ends or the download stops. Bytes are
+	 * fed to the digest as they are written, or read back once at the end if
+	 * the write mode never had them in memory.
+	 */
+	protected void copyStream(InputStream stream, File localFile) throws IOException {
+		int bufferSize = getBufferSize();
+		FileSink sink = FileSink.open(localFile, getWriteMode(), bufferSize, false);
+		boolean digesting = true;
+		try {
+			while (status == DOWNLOADING) {
+				// Copy as much of the file as is left to download, a buffer at a time.
+				int length = (int) Math.min(bufferSize, size - downloaded);
+				if (length == 0)
+					break;
+
+				int read = sink.copy(stream, downloaded, length);
+				if (read == -1)
+					break;
+				throttle(read);
+
+				if (digest != null && digesting) {
+					if (sink.digest(digest))
+						digested += read;
+					else
+						digesting = false;
+				}
+				written(downloaded, read);
+			}
+		} finally {
+			sink.close();
+		}
+		if (!digesting)
+			startDigest(localFile, downloaded);
+	}
+
+	// Wait until the bandwidth limits allow the bytes just read.
+	protected void throttle(int read) {
+		BandwidthManager.getInstance().throttle(this, read);
+	}
+
+	/*
+	 * Record bytes just written at the given position of the file: mark them
+	 * in the journal, hash the chunks they finish and add them to the progress.
+	 */
+	protected void written(long position, int read) throws IOException {
+		DownloadJournal current = journal;
+		if (current != null)
+			current.written(position, read);
+		HashManifest hashes = manifest;
+		if (hashes != null)
+			hashes.written(position, read);
+		metrics.firstByte();
+		addDownloaded(read);
+	}
+
+	/*
+	 * Add bytes written by one of possibly several transfer threads. The
+	 * ProgressSampler picks the new count up, so no notification is sent here.
+	 */
+	protected void addDownloaded(long read) {
+		DOWNLOADED.addAndGet(this, read);
+	}
+
+	// Flag that this download's status has changed for the next progress sample.
+	protected void stateChanged() {
+		changed.set(true);
+		ProgressSampler.getInstance().track(this);
+	}
+
+	/*
+	 * Called by the ProgressSampler. Returns true if the status or progress
+	 * changed since the previous sample, and once a second while a running
+	 * transfer makes no progress, so that its speed is seen to drop.
+	 */
+	boolean sample() {
+		boolean statusChanged = changed.getAndSet(false);
+		long current = downloaded;
+		if (!statusChanged && current == published) {
+			if (status != DOWNLOADING)
+				return false;
+			return ++stalledSamples % STALLED_SAMPLES == 0;
+		}
+		stalledSamples = 0;
+		published = current;
+		return true;
+	}
+
+	boolean hasPendingChange() {
+		return changed.get();
+	}
+
+	/*
+	 * Mark this download complete without transferring anything if the local
+	 * copy is already current.
+	 */
+	protected boolean skipIfUpToDate(File localFile, RemoteMetadata remote) {
+		if (!freshnessCheck.isUpToDate(localFile, remote))
+			return false;
+		// A repair checks the chunks of a current copy instead of skipping it.
+		if (isRepair() && getExpectedManifest(localFile) != null)
+			return false;
+
+		String errorMsg = "The remote file (" + localFile.getName() + ") already exists in the directory:"
+				+ localFile.getParent();
+		log.error(errorMsg);
+		reportError(errorMsg);
+		DownloadJournal.delete(localFile);
+		status = COMPLETE;
+		stateChanged();
+		return true;
+	}
+
+	/*
+	 * Prepare the digest for bytes written from offset on. A digest carried over
+	 * from a paused run is continued, otherwise the existing prefix of the local
+	 * file is hashed once. A whole-file MD5 can only be computed in order on one
+	 * core, so it is skipped unless the server sent one to match; the chunk
+	 * manifest covers the file otherwise.
+	 */
+	protected void startDigest(File localFile, long offset) throws IOException {
+		if (!digestNeeded) {
+			digest = null;
+			return;
+		}
+		if (digest != null && digested == offset)
+			return;
+
+		digest = DigestUtils.getMd5Digest();
+		digested = 0L;
+		if (offset > 0) {
+			InputStream prefix = new FileInputStream(localFile);
+			try {
+				DigestUtils.updateDigest(digest, new BoundedInputStream(prefix, offset));
+				digested = offset;
+			} finally {
+				prefix.close();
+			}
+		}
+	}
+
+	// Get the hex digest of everything written and reset it, or null if none was kept.
+	protected String finishDigest() {
+		if (digest == null)
+			return null;
+		String hex = Hex.encodeHexString(digest.digest());
+		digest = null;
+		digested = 0L;
+		return hex;
+	}
+
+	/*
+	 * Check the digest of a complete download against the Content-MD5 the server
+	 * sent, if any.
+	 */
+	protected boolean verifyDigest(String hex, RemoteMetadata remote) {
+		if (remote.getMd5() == null)
+			return true;
+		String expected = Hex.encodeHexString(Base64.decodeBase64(remote.getMd5()));
+		if (expected.equalsIgnoreCase(hex))
+			return true;
+		log.error("Digest mismatch for " + getUrl() + ", expected:" + expected + ", actual:" + hex);
+		return false;
+	}
+
+	/*
+	 * Whether to check an existing local copy chunk by chunk against its
+	 * manifest and fetch again only the ranges that differ, set by REPAIR.
+	 */
+	protected boolean isRepair() {
+		return Boolean.parseBoolean(prop.getProperty("REPAIR", "false").trim());
+	}
+
+	/*
+	 * Get the manifest the download has to match: one supplied in the
+	 * MANIFEST.DIRECTORY tree at the file's remote path, or when repairing,
+	 * the one recorded when the file was last downloaded.
+	 */
+	protected HashManifest getExpectedManifest(File localFile) {
+		if (expected != null)
+			return expected;
+		String manifestDirectory = prop.getProperty("MANIFEST.DIRECTORY", "").trim();
+		File supplied = new File(manifestDirectory, getRemotePath(uri) + HashManifest.MANIFEST_SUFFIX);
+		File recorded = HashManifest.fileFor(localFile);
+		File source = null;
+		if (manifestDirectory.length() > 0 && supplied.isFile())
+			source = supplied;
+		else if (isRepair() && recorded.isFile())
+			source = recorded;
+		if (source != null) {
+			try {
+				expected = HashManifest.load(source);
+			} catch (IOException e) {
+				log.error("Ignoring the manifest " + source + ": " + e.getMessage());
+			}
+		}
+		return expected;
+	}
+
+	/*
+	 * Hash the chunks not hashed while they were written, save the manifest
+	 * next to the file and compare it with the expected one, if any. Ranges
+	 * that differ are cleared from the journal, so resuming fetches only them.
+	 */
+	protected boolean verifyChunks(File localFile) {
+		HashManifest recorded = manifest;
+		if (recorded == null)
+			return true;
+		try {
+			recorded.hashMissing();
+			List<Segment> mismatched = (expected != null) ? recorded.mismatches(expected) : new ArrayList<Segment>();
+			// The recorded manifest says what the file should hold, not what it holds now.
+			(mismatched.isEmpty() ? recorded : expected).save(HashManifest.fileFor(localFile));
+			if (mismatched.isEmpty())
+				return true;
+
+			DownloadJournal current = journal;
+			for (Segment segment : mismatched) {
+				log.error("Bytes " + segment.getStart() + "-" + segment.getEnd() + " of " + localFile
+						+ " do not match the manifest");
+				if (current != null)
+					current.invalidate(segment.getStart(), segment.getRemaining());
+			}
+			String errorMsg = mismatched.size() + " ranges of " + localFile.getName()
+					+ " do not match the manifest. Resume the download to fetch them again.";
+			log.error(errorMsg);
+			reportError(errorMsg);
+			return false;
+		} catch (IOException e) {
+			log.error("Not able to verify the chunks of " + localFile + ": " + e.getMessage());
+			return false;
+		} finally {
+			recorded.close();
+			manifest = null;
+		}
+	}
+
+	/*
+	 * Record a completed download and mark it complete, or mark it as an error
+	 * if the content does not match what the server announced.
+	 */
+	protected void completeDownload(File localFile, RemoteMetadata remote) {
+		String hex = finishDigest();
+		if (!verifyDigest(hex, remote) || !verifyChunks(localFile)) {
+			error();
+			return;
+		}
+		freshnessCheck.downloaded(localFile, remote, hex);
+		status = COMPLETE;
+		stateChanged();
+	}
+
+	/*
+	 * Get how much of the local file is already downloaded. A preallocated file
+	 * is as long as the remote one, so its valid length comes from the index.
+	 */
+	protected long getLocalOffset(File localFile) {
+		if (!localFile.exists())
+			return 0L;
+		Long partial = DownloadIndex.forDirectory(localFile.getParentFile()).getPartial(localFile.getName());
+		return (partial != null) ? Math.min(partial, localFile.length()) : localFile.length();
+	}
+
+	/*
+	 * Find where to resume and start recording. A journal left for the same
+	 * remote file tells which chunks are already written: if they leave holes
+	 * and the server serves ranges, the missing chunks become the segments to
+	 * fetch, otherwise the transfer resumes after the finished chunks at the
+	 * start. Without a journal the local file's length is used as before.
+	 * Returns the offset to resume a single stream from.
+	 */
+	protected long openJournal(File localFile, RemoteMetadata remote, boolean rangesSupported) throws IOException {
+		HashManifest manifestToMatch = getExpectedManifest(localFile);
+		if (manifestToMatch != null && manifestToMatch.getSize() != remote.getSize()) {
+			String errorMsg = "The manifest of " + localFile.getName() + " is for " + manifestToMatch.getSize()
+					+ " bytes, but the remote file has " + remote.getSize();
+			log.error(errorMsg);
+			reportError(errorMsg);
+			throw new IOException(errorMsg);
+		}
+
+		digestNeeded = (remote.getMd5() != null);
+		DownloadJournal existing = DownloadJournal.load(DownloadJournal.fileFor(localFile));
+		// Credentials stay with this download and never reach the journal.
+		String journalUrl = withoutCredentials(uri);
+		boolean login = user.length() > 0;
+		HashManifest known = null;
+		long offset;
+		if (existing != null && existing.matches(journalUrl, remote) && localFile.exists()) {
+			journal = existing;
+			known = loadRecordedManifest(localFile);
+			offset = existing.getContiguousBytes();
+			if (segments == null && rangesSupported && existing.hasHoles()) {
+				segments = existing.getMissingSegments();
+				downloaded = existing.getCompletedBytes();
+				stateChanged();
+				log.info("Resuming " + localFile + " from its journal, " + segments.size() + " ranges missing");
+			}
+		} else if (isRepair() && manifestToMatch != null && localFile.length() == remote.getSize()) {
+			// Keep every chunk of the local copy that matches the manifest.
+			known = HashManifest.like(manifestToMatch);
+			known.open(localFile);
+			try {
+				known.hashMissing();
+			} finally {
+				known.close();
+			}
+			List<Segment> mismatched = known.mismatches(manifestToMatch);
+			DownloadJournal created = DownloadJournal.create(localFile, journalUrl, login, localDirectory, remote);
+			created.written(0, remote.getSize());
+			for (Segment segment : mismatched)
+				created.invalidate(segment.getStart(), segment.getRemaining());
+			journal = created;
+			offset = created.getContiguousBytes();
+			if (rangesSupported || mismatched.isEmpty()) {
+				segments = created.getMissingSegments();
+				downloaded = created.getCompletedBytes();
+				stateChanged();
+			}
+			log.info("Repairing " + localFile + ", " + mismatched.size() + " ranges do not match the manifest");
+		} else {
+			offset = getLocalOffset(localFile);
+			if (segments == null && offset >= remote.getSize()) {
+				// The local copy is not current and can not be resumed, start over.
+				discardLocalFile(localFile);
+				offset = 0;
+			}
+
+			// Hashes recorded for an earlier copy no longer describe the file.
+			HashManifest.delete(localFile);
+			DownloadJournal created = DownloadJournal.create(localFile, journalUrl, login, localDirectory, remote);
+			if (segments != null) {
+				for (Segment segment : segments)
+					created.written(segment.getStart(), segment.getPosition() - segment.getStart());
+			} else {
+				created.written(0, offset);
+			}
+			journal = created;
+		}
+		journal.open();
+		startManifest(localFile, remote.getSize(), known, offset);
+		return offset;
+	}
+
+	/*
+	 * Start hashing chunks as they are written. Hashes known for the chunks
+	 * already in place are kept, and every range still to fetch is hashed anew.
+	 */
+	private void startManifest(File localFile, long fileSize, HashManifest known, long offset) throws IOException {
+		HashManifest started = (expected != null) ? HashManifest.like(expected) : HashManifest.forSize(fileSize);
+		if (known != null && known.hasLayoutOf(started))
+			started = known;
+		if (segments != null) {
+			for (Segment segment : segments)
+				started.forget(segment.getPosition(), segment.getRemaining());
+		} else {
+			started.forget(offset, fileSize - offset);
+		}
+		started.open(localFile);
+		manifest = started;
+	}
+
+	// Read the manifest saved by an earlier run, or return null if there is none that can be used.
+	private HashManifest loadRecordedManifest(File localFile) {
+		File recorded = HashManifest.fileFor(localFile);
+		if (!recorded.isFile())
+			return null;
+		try {
+			return HashManifest.load(recorded);
+		} catch (IOException e) {
+			log.error("Ignoring the manifest " + recorded + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	// Keep the journal for a later resume, or drop it once it is no longer needed.
+	protected void closeJournal() {
+		HashManifest hashes = manifest;
+		if (hashes != null) {
+			hashes.close();
+			manifest = null;
+		}
+		DownloadJournal current = journal;
+		if (current == null)
+			return;
+		if (status == COMPLETE || status == CANCELLED)
+			current.discard();
+		else
+			current.close();
+		journal = null;
+	}
+
+	/*
+	 * Start a single stream over from the first byte, for a server that sent
+	 * the whole file instead of the range asked for. The local copy is
+	 * truncated and its journal and hashes forgotten, as nothing of it is kept.
+	 */
+	protected void restartFromStart(File localFile) throws IOException {
+		log.info("The server ignored the range request for " + getUrl() + ", downloading it from the start");
+		RandomAccessFile file = new RandomAccessFile(localFile, "rw");
+		try {
+			file.setLength(0);
+		} finally {
+			file.close();
+		}
+		DownloadJournal currentJournal = journal;
+		if (currentJournal != null)
+			currentJournal.invalidate(0, size);
+		HashManifest currentManifest = manifest;
+		if (currentManifest != null)
+			currentManifest.forget(0, size);
+		downloaded = 0L;
+		stateChanged();
+		preallocate(localFile, size);
+		startDigest(localFile, 0L);
+	}
+
+	// Delete a local file that can not be resumed.
+	protected void discardLocalFile(File localFile) {
+		localFile.delete();
+		HashManifest.delete(localFile);
+		DownloadIndex.forDirectory(localFile.getParentFile()).removePartial(localFile.getName());
+	}
+
+	/*
+	 * Reserve the full length of the file before any bytes arrive, as set by
+	 * PREALLOCATE in config.properties:
+	 *   none    grow the file as it is written (default)
+	 *   sparse  set the length, letting the file system allocate blocks lazily
+	 *   full    allocate every block, with fallocate where available
+	 */
+	protected void preallocate(File localFile, long length) throws IOException {
+		preallocate(localFile, length, prop.getProperty("PREALLOCATE", "none").trim().toLowerCase());
+	}
+
+	private void preallocate(File localFile, long length, String mode) throws IOException {
+		if (mode.equals("none") || localFile.length() >= length)
+			return;
+
+		// Once the file is extended its length no longer says how much is valid.
+		DownloadIndex.forDirectory(localFile.getParentFile()).putPartial(localFile.getName(), downloaded);
+		if (mode.equals("full") && fallocate(localFile, length))
+			return;
+
+		RandomAccessFile file = new RandomAccessFile(localFile, "rw");
+		try {
+			if (mode.equals("full")) {
+				byte[] zeros = new byte[PREALLOCATE_CHUNK_SIZE];
+				file.seek(file.length());
+				for (long left = length - file.length(); left > 0; left -= zeros.length)
+					file.write(zeros, 0, (int) Math.min(zeros.length, left));
+			} else {
+				file.setLength(length);
+			}
+		} finally {
+			file.close();
+		}
+		log.info("Preallocated " + FileUtils.byteCountToDisplaySize(length) + " (" + mode + ") for " + localFile);
+	}
+
+	// Reserve the blocks with the fallocate tool, without writing them. Linux only.
+	private boolean fallocate(File localFile, long length) {
+		if (!systemProp.getProperty("os.name", "").toLowerCase().startsWith("linux"))
+			return false;
+		try {
+			Process process = new ProcessBuilder("fallocate", "-l", Long.toString(length), localFile.getPath())
+					.redirectErrorStream(true).start();
+			IOUtils.copy(process.getInputStream(), NullOutputStream.NULL_OUTPUT_STREAM);
+			return process.waitFor() == 0;
+		} catch (IOException e) {
+			log.debug("fallocate is not available: " + e.getMessage());
+			return false;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	/*
+	 * Record how far a preallocated file is valid when the transfer stops
+	 * before the end.
+	 */
+	protected void savePartial(File localFile) {
+		DownloadIndex index = DownloadIndex.forDirectory(localFile.getParentFile());
+		if (status != COMPLETE && index.getPartial(localFile.getName()) != null)
+			index.putPartial(localFile.getName(), downloaded);
+	}
+
+	/*
+	 * Split a new download into segmentCount ranges if the file is big enough
+	 * for each to be worth a connection. Returns whether it is segmented.
+	 */
+	protected boolean planSegments(long offset, int segmentCount) {
+		if (segments == null && offset == 0 && segmentCount > 1 && size >= (long) segmentCount * MIN_SEGMENT_SIZE)
+			segments = Segment.split(size, segmentCount);
+		return segments != null;
+	}
+
+	/*
+	 * Fetch the unfinished segments with up to parallelism at a time, each
+	 * written at its own offset in the target file.
+	 */
+	protected void downloadSegments(final String filePath, int parallelism) throws Exception {
+		// Transfers and mappings only write within the file's length.
+		if (FileSink.needsLength(getWriteMode()))
+			preallocate(new File(filePath), size, "sparse");
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism));
+		List<Future<Void>> futures = new ArrayList<Future<Void>>();
+		try {
+			for (final Segment segment : segments) {
+				if (segment.isComplete())
+					continue;
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call() throws Exception {
+						try {
+							if (status == DOWNLOADING)
+								downloadSegment(filePath, segment);
+						} catch (IOException e) {
+							// Stop the other segments at once.
+							error();
+							throw e;
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures)
+				future.get();
+		} catch (ExecutionException e) {
+			log.error("Error when downloading a segment of " + getUrl() + ": " + e.getCause());
+			error();
+			throw e;
+		} finally {
+			// Wait for every segment to stop, so none still holds a connection.
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS))
+				;
+		}
+	}
+
+	// Download one byte range into place. Protocols that support segments override this.
+	protected void downloadSegment(String filePath, Segment segment) throws IOException {
+		throw new IOException("Segmented downloads are not supported for " + getUrl());
+	}
+
+	/*
+	 * Copy a segment's bytes from the stream into the file, stopping at the end
+	 * of the segment even if the stream has more.
+	 */
+	protected void copySegment(InputStream stream, String filePath, Segment segment) throws IOException {
+		int bufferSize = getBufferSize();
+		FileSink sink = FileSink.open(new File(filePath), getWriteMode(), bufferSize, true);
+		try {
+			while (status == DOWNLOADING && !segment.isComplete()) {
+				int read = sink.copy(stream, segment.getPosition(), (int) Math.min(bufferSize, segment.getRemaining()));
+				if (read == -1)
+					throw new IOException("Connection closed before the end of " + segment);
+				throttle(read);
+
+				written(segment.getPosition(), read);
+				segment.advance(read);
+			}
+		} finally {
+			sink.close();
+		}
+	}
+
+	protected boolean checkDiskFreeSpaceForFile(long machineSpache, long fileSize) {
+		boolean isDiskSpaceEnough =  (machineSpache>fileSize)? true: false;
+		return isDiskSpaceEnough;		
+	}	
+	
+}
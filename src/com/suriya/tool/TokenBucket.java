@@ -0,0 +1,51 @@
+package com.suriya.tool;
+
+/*
+ * This class limits a byte rate. Callers take tokens for the bytes they move
+ * and sleep off any debt, so concurrent users share the rate. A rate of zero
+ * means unlimited and costs one volatile read.
+ */
+class TokenBucket {
+
+	private volatile long rate; // bytes per second, 0 for unlimited
+	private double tokens; // may go negative while callers wait
+	private long lastRefill = System.nanoTime();
+
+	public TokenBucket(long rate) {
+		setRate(rate);
+	}
+
+	public long getRate() {
+		return rate;
+	}
+
+	// Change the rate; transfers already running pick it up on their next chunk.
+	public synchronized void setRate(long rate) {
+		this.rate = Math.max(0L, rate);
+		tokens = Math.min(tokens, this.rate);
+	}
+
+	// Take tokens for the given bytes, sleeping until the rate allows them.
+	public void acquire(int bytes) {
+		long currentRate = rate;
+		if (currentRate <= 0)
+			return;
+
+		long waitNanos;
+		synchronized (this) {
+			long now = System.nanoTime();
+			// Allow a burst of at most one second's worth of bytes.
+			tokens = Math.min(currentRate, tokens + (now - lastRefill) * (double) currentRate / 1000000000L);
+			lastRefill = now;
+			tokens -= bytes;
+			waitNanos = (tokens < 0) ? (long) (-tokens * 1000000000L / currentRate) : 0L;
+		}
+		if (waitNanos > 0) {
+			try {
+				Thread.sleep(waitNanos / 1000000L, (int) (waitNanos % 1000000L));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
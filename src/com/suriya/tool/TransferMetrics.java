@@ -0,0 +1,217 @@
+package com.suriya.tool;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.ObjectName;
+
+/*
+ * This class times the phases of a download's runs:
+ *
+ *   queue wait   submitted until the scheduler starts the run
+ *   connect      getting the connection the run starts on: the HEAD exchange
+ *                for HTTP, a pooled session for FTP and SFTP
+ *   pre-check    metadata, freshness check, journal and preallocation, until
+ *                the transfer is requested
+ *   first byte   transfer requested until its first byte is written
+ *   transfer     first byte until the run ends
+ *
+ * The scheduler marks the start and end of each run and the protocols mark
+ * the phases in between, once per run. The copy loops only read one field per
+ * buffer, so the metrics can stay on in production. Each finished run is
+ * added to the totals in TransferStats.
+ */
+class TransferMetrics implements TransferMetricsMXBean {
+
+	private static final AtomicLong ids = new AtomicLong();
+
+	private final long id = ids.incrementAndGet();
+	private final SimpleDownload download;
+	private volatile String fileName = "";
+	private ObjectName name = null; // set while registered with JMX
+
+	// System.nanoTime of each phase of the current run, 0 until it is reached.
+	private volatile long queuedAt = 0L;
+	private volatile long startedAt = 0L;
+	private volatile long connectingAt = 0L;
+	private volatile long connectedAt = 0L;
+	private volatile long transferringAt = 0L;
+	private volatile long firstByteAt = 0L;
+	private volatile long endedAt = 0L;
+
+	private volatile long startBytes = 0L; // downloaded when the run started
+	private volatile long runBytes = 0L; // downloaded during the last finished run
+	private volatile int runs = 0;
+	private volatile int retries = 0;
+	private volatile boolean retry = false; // whether the current run follows a failed one
+	private volatile int lastStatus = -1; // status the last run ended with
+
+	TransferMetrics(SimpleDownload download) {
+		this.download = download;
+	}
+
+	long getId() {
+		return id;
+	}
+
+	ObjectName getName() {
+		return name;
+	}
+
+	void setName(ObjectName name) {
+		this.name = name;
+	}
+
+	boolean isRetry() {
+		return retry;
+	}
+
+	int getLastStatus() {
+		return lastStatus;
+	}
+
+	void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	// Called when the download is submitted to the scheduler.
+	void queued() {
+		queuedAt = System.nanoTime();
+	}
+
+	// Called by the scheduler's thread as a run starts.
+	void started(long downloaded) {
+		retry = (lastStatus == SimpleDownload.ERROR);
+		if (retry)
+			retries++;
+		runs++;
+		startBytes = downloaded;
+		connectingAt = 0L;
+		connectedAt = 0L;
+		transferringAt = 0L;
+		firstByteAt = 0L;
+		endedAt = 0L;
+		startedAt = System.nanoTime();
+	}
+
+	public void connecting() {
+		connectingAt = System.nanoTime();
+	}
+
+	public void connected() {
+		connectedAt = System.nanoTime();
+	}
+
+	// The first data request of the run is about to be sent.
+	public void transferring() {
+		transferringAt = System.nanoTime();
+	}
+
+	// Called for every buffer written; only the first of a run is timed.
+	void firstByte() {
+		if (firstByteAt == 0L)
+			firstByteAt = System.nanoTime();
+	}
+
+	// Called by the scheduler's thread as a run ends.
+	void stopped(int status, long downloaded) {
+		endedAt = System.nanoTime();
+		lastStatus = status;
+		runBytes = downloaded - startBytes;
+		TransferStats.getInstance().record(this, runBytes);
+	}
+
+	long getRunBytes() {
+		return runBytes;
+	}
+
+	/*
+	 * Get the bytes per second of the last finished run, from its first data
+	 * request to its end, so the setup of extra connections is counted.
+	 */
+	long getRunThroughput() {
+		long from = transferringAt;
+		if (from == 0L || endedAt - from <= 0)
+			return 0L;
+		return (long) (runBytes * 1e9 / (endedAt - from));
+	}
+
+	// Get the time from one mark to the next in milliseconds, up to now if the second is not reached yet.
+	private long between(long from, long to) {
+		if (from == 0L)
+			return -1L;
+		if (to == 0L) {
+			if (endedAt != 0L)
+				return -1L; // the run ended before reaching it
+			to = System.nanoTime();
+		}
+		return TimeUnit.NANOSECONDS.toMillis(to - from);
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public String getHost() {
+		String host = download.uri.getHost();
+		return (host == null) ? "" : host.toLowerCase();
+	}
+
+	public String getProtocol() {
+		return download.uri.getScheme().toLowerCase();
+	}
+
+	public String getStatus() {
+		return SimpleDownload.STATUSES[download.getStatus()];
+	}
+
+	public long getSize() {
+		return download.getSize();
+	}
+
+	public long getDownloaded() {
+		return download.downloaded;
+	}
+
+	public int getRuns() {
+		return runs;
+	}
+
+	public int getRetries() {
+		return retries;
+	}
+
+	public long getQueueWaitMillis() {
+		long queued = queuedAt;
+		// Queued again since the last run started: still waiting, unless paused since.
+		if (queued != 0L && (startedAt == 0L || queued - startedAt > 0)) {
+			if (download.getStatus() != SimpleDownload.QUEUED)
+				return -1L;
+			return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - queued);
+		}
+		return between(queued, startedAt);
+	}
+
+	public long getConnectMillis() {
+		return between(connectingAt, connectedAt);
+	}
+
+	public long getPreCheckMillis() {
+		return between(connectedAt, transferringAt);
+	}
+
+	public long getTimeToFirstByteMillis() {
+		return between(transferringAt, firstByteAt);
+	}
+
+	public long getTransferMillis() {
+		return between(firstByteAt, endedAt);
+	}
+
+	public long getThroughput() {
+		long millis = getTransferMillis();
+		if (millis <= 0)
+			return 0L;
+		return (download.downloaded - startBytes) * 1000L / millis;
+	}
+}
@@ -0,0 +1,40 @@
+package com.suriya.tool;
+
+/*
+ * The JMX view of one download, registered as
+ * com.suriya.tool:type=Transfer,host=<host>,id=<n>. Phase times are those of
+ * the current run, or of the last one once it ended, in milliseconds; -1
+ * means the run never reached the phase. JMX needs this interface public.
+ */
+public interface TransferMetricsMXBean {
+
+	String getFileName();
+
+	String getHost();
+
+	String getProtocol();
+
+	String getStatus();
+
+	long getSize();
+
+	long getDownloaded();
+
+	// Runs started so far, and how many of them followed a failed run.
+	int getRuns();
+
+	int getRetries();
+
+	long getQueueWaitMillis();
+
+	long getConnectMillis();
+
+	long getPreCheckMillis();
+
+	long getTimeToFirstByteMillis();
+
+	long getTransferMillis();
+
+	// Bytes per second written since the first byte of the run.
+	long getThroughput();
+}
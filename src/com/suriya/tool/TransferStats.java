@@ -0,0 +1,259 @@
+package com.suriya.tool;
+
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+
+/*
+ * This class adds up the TransferMetrics of every run and publishes them,
+ * with the metrics of each download, on the platform MBean server, where
+ * jconsole, VisualVM or a JMX exporter can read them:
+ *
+ *   com.suriya.tool:type=TransferStats                  totals and histograms
+ *   com.suriya.tool:type=Transfer,host=<host>,id=<n>    one download
+ *
+ * A download is registered when its first run starts, and unregistered when it
+ * is cleared from the list. Downloads not running, whether complete, failed,
+ * paused or cancelled, stay registered until more than METRICS.RETAINED of them
+ * have stopped, then those stopped longest are dropped; the totals keep their
+ * runs.
+ *
+ * Settings in config.properties:
+ *   METRICS.JMX        false to keep the totals without registering anything
+ *   METRICS.RETAINED   finished downloads kept registered (default 200)
+ */
+class TransferStats implements TransferStatsMXBean {
+
+	final static Logger log = Logger.getLogger(TransferStats.class);
+
+	public static final String DOMAIN = "com.suriya.tool";
+
+	private static TransferStats instance = null;
+
+	private final MBeanServer server; // null if JMX is off
+	private final int retained;
+	private final LinkedHashSet<TransferMetrics> finished = new LinkedHashSet<TransferMetrics>(); // oldest first
+
+	private final LongAdder runs = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder retries = new LongAdder();
+	private final LongAdder bytes = new LongAdder();
+	private final ConcurrentHashMap<String, LongAdder> bytesByProtocol = new ConcurrentHashMap<String, LongAdder>();
+	private final ConcurrentHashMap<String, LongAdder> bytesByHost = new ConcurrentHashMap<String, LongAdder>();
+
+	private final Histogram queueWait = new Histogram();
+	private final Histogram connectTime = new Histogram();
+	private final Histogram preCheckTime = new Histogram();
+	private final Histogram timeToFirstByte = new Histogram();
+	private final Histogram throughput = new Histogram();
+	private final ConcurrentHashMap<String, Histogram> throughputByProtocol = new ConcurrentHashMap<String, Histogram>();
+
+	TransferStats(Properties config) {
+		boolean jmx = Boolean.parseBoolean(config.getProperty("METRICS.JMX", "true").trim());
+		retained = Integer.parseInt(config.getProperty("METRICS.RETAINED", "200").trim());
+		server = jmx ? ManagementFactory.getPlatformMBeanServer() : null;
+	}
+
+	public static synchronized TransferStats getInstance() {
+		if (instance == null) {
+			instance = new TransferStats(SimpleDownload.loadConfig());
+			instance.register(instance, DOMAIN + ":type=TransferStats");
+		}
+		return instance;
+	}
+
+	private ObjectName register(Object bean, String name) {
+		if (server == null)
+			return null;
+		try {
+			ObjectName objectName = new ObjectName(name);
+			server.registerMBean(bean, objectName);
+			return objectName;
+		} catch (JMException e) {
+			log.error("Not able to register the MBean " + name + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private void unregister(ObjectName name) {
+		try {
+			server.unregisterMBean(name);
+		} catch (JMException e) {
+			log.debug("Not able to unregister the MBean " + name + ": " + e.getMessage());
+		}
+	}
+
+	// Publish a download's metrics, if they are not yet.
+	public synchronized void register(TransferMetrics metrics) {
+		// A running download is not dropped.
+		finished.remove(metrics);
+		if (server == null || metrics.getName() != null)
+			return;
+		metrics.setName(register(metrics, DOMAIN + ":type=Transfer,host=" + ObjectName.quote(metrics.getHost())
+				+ ",id=" + metrics.getId()));
+	}
+
+	// Add a run that just ended, which moved the given number of bytes.
+	public void record(TransferMetrics metrics, long runBytes) {
+		runs.increment();
+		int status = metrics.getLastStatus();
+		if (status == SimpleDownload.COMPLETE)
+			completed.increment();
+		else if (status == SimpleDownload.ERROR)
+			failed.increment();
+		if (metrics.isRetry())
+			retries.increment();
+
+		if (runBytes > 0) {
+			bytes.add(runBytes);
+			count(bytesByProtocol, metrics.getProtocol()).add(runBytes);
+			count(bytesByHost, metrics.getHost()).add(runBytes);
+		}
+
+		add(queueWait, metrics.getQueueWaitMillis());
+		add(connectTime, metrics.getConnectMillis());
+		add(preCheckTime, metrics.getPreCheckMillis());
+		add(timeToFirstByte, metrics.getTimeToFirstByteMillis());
+		long millis = metrics.getTransferMillis();
+		if (millis > 0 && runBytes > 0) {
+			long kilobytesPerSecond = runBytes * 1000L / millis / 1024L;
+			throughput.add(kilobytesPerSecond);
+			histogram(throughputByProtocol, metrics.getProtocol()).add(kilobytesPerSecond);
+		}
+
+		retire(metrics);
+	}
+
+	// Drop the downloads stopped longest beyond the number kept registered.
+	private synchronized void retire(TransferMetrics metrics) {
+		if (metrics.getName() == null)
+			return;
+		finished.remove(metrics);
+		finished.add(metrics);
+		Iterator<TransferMetrics> oldest = finished.iterator();
+		while (finished.size() > retained) {
+			TransferMetrics dropped = oldest.next();
+			oldest.remove();
+			unregister(dropped.getName());
+			dropped.setName(null);
+		}
+	}
+
+	// Stop publishing a download cleared from the list.
+	public synchronized void remove(TransferMetrics metrics) {
+		finished.remove(metrics);
+		if (metrics.getName() != null) {
+			unregister(metrics.getName());
+			metrics.setName(null);
+		}
+	}
+
+	private static void add(Histogram histogram, long value) {
+		if (value >= 0)
+			histogram.add(value);
+	}
+
+	private static LongAdder count(ConcurrentHashMap<String, LongAdder> counts, String key) {
+		LongAdder count = counts.get(key);
+		if (count == null) {
+			count = new LongAdder();
+			LongAdder existing = counts.putIfAbsent(key, count);
+			if (existing != null)
+				count = existing;
+		}
+		return count;
+	}
+
+	private static Histogram histogram(ConcurrentHashMap<String, Histogram> histograms, String key) {
+		Histogram histogram = histograms.get(key);
+		if (histogram == null) {
+			histogram = new Histogram();
+			Histogram existing = histograms.putIfAbsent(key, histogram);
+			if (existing != null)
+				histogram = existing;
+		}
+		return histogram;
+	}
+
+	private static Map<String, Long> sums(Map<String, LongAdder> counts) {
+		Map<String, Long> sums = new TreeMap<String, Long>();
+		for (Map.Entry<String, LongAdder> entry : counts.entrySet())
+			sums.put(entry.getKey(), entry.getValue().sum());
+		return sums;
+	}
+
+	public int getActiveDownloads() {
+		return DownloadScheduler.getInstance().getActiveCount();
+	}
+
+	public int getQueuedDownloads() {
+		return DownloadScheduler.getInstance().getQueuedCount();
+	}
+
+	public long getRuns() {
+		return runs.sum();
+	}
+
+	public long getCompleted() {
+		return completed.sum();
+	}
+
+	public long getFailed() {
+		return failed.sum();
+	}
+
+	public long getRetries() {
+		return retries.sum();
+	}
+
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	public Map<String, Long> getBytesByProtocol() {
+		return sums(bytesByProtocol);
+	}
+
+	public Map<String, Long> getBytesByHost() {
+		return sums(bytesByHost);
+	}
+
+	public Histogram.Snapshot getQueueWait() {
+		return queueWait.snapshot();
+	}
+
+	public Histogram.Snapshot getConnectTime() {
+		return connectTime.snapshot();
+	}
+
+	public Histogram.Snapshot getPreCheckTime() {
+		return preCheckTime.snapshot();
+	}
+
+	public Histogram.Snapshot getTimeToFirstByte() {
+		return timeToFirstByte.snapshot();
+	}
+
+	public Histogram.Snapshot getThroughput() {
+		return throughput.snapshot();
+	}
+
+	public Map<String, Histogram.Snapshot> getThroughputByProtocol() {
+		Map<String, Histogram.Snapshot> snapshots = new TreeMap<String, Histogram.Snapshot>();
+		for (Map.Entry<String, Histogram> entry : throughputByProtocol.entrySet())
+			snapshots.put(entry.getKey(), entry.getValue().snapshot());
+		return snapshots;
+	}
+}
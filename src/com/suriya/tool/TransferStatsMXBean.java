@@ -0,0 +1,42 @@
+package com.suriya.tool;
+
+import java.util.Map;
+
+/*
+ * The JMX view of all downloads together, registered as
+ * com.suriya.tool:type=TransferStats. Counts and histograms cover every run
+ * that ended since the program started; bytes are added as each run ends.
+ * Times are in milliseconds and throughput in kilobytes per second.
+ */
+public interface TransferStatsMXBean {
+
+	int getActiveDownloads();
+
+	int getQueuedDownloads();
+
+	long getRuns();
+
+	long getCompleted();
+
+	long getFailed();
+
+	long getRetries();
+
+	long getBytes();
+
+	Map<String, Long> getBytesByProtocol();
+
+	Map<String, Long> getBytesByHost();
+
+	Histogram.Snapshot getQueueWait();
+
+	Histogram.Snapshot getConnectTime();
+
+	Histogram.Snapshot getPreCheckTime();
+
+	Histogram.Snapshot getTimeToFirstByte();
+
+	Histogram.Snapshot getThroughput();
+
+	Map<String, Histogram.Snapshot> getThroughputByProtocol();
+}